@@ -0,0 +1,71 @@
+package com.shelzi.jdbcmigrate.benchmark;
+
+import com.shelzi.jdbcmigrate.controller.MigrationExecutor;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// Полный прогон applyMigrations на чистой in-memory H2: обход, хеширование, блокировка, выполнение, история.
+// Один вызов = одна свежая база, поэтому SingleShotTime.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmark.xml")
+public class ApplyMigrationsBenchmark {
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"10"})
+    public int statementsPerFile;
+
+    private Path root;
+    private Connection connection;
+    private int database;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        root = MigrationTreeGenerator.generateTree(Files.createTempDirectory("apply"), files, statementsPerFile, 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        MigrationTreeGenerator.deleteRecursively(root);
+    }
+
+    @Setup(Level.Invocation)
+    public void openDatabase() throws SQLException {
+        // Без DB_CLOSE_DELAY база удаляется вместе с последним соединением
+        connection = DriverManager.getConnection("jdbc:h2:mem:apply_" + database++, "sa", "");
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void applyMigrations() throws SQLException, IOException, MigrationException {
+        new MigrationExecutor(connection, root.toString()).applyMigrations();
+    }
+}
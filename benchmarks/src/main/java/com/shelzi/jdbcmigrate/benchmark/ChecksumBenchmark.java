@@ -0,0 +1,56 @@
+package com.shelzi.jdbcmigrate.benchmark;
+
+import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// SHA-256 по файлу (поток) и по уже прочитанному содержимому - маленькая миграция и большой дамп данных
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmark.xml")
+public class ChecksumBenchmark {
+    @Param({"2048", "67108864"})
+    public long sizeBytes;
+
+    private Path file;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = MigrationTreeGenerator.generateFile(Files.createTempFile("checksum", ".sql"), sizeBytes);
+        content = Files.readAllBytes(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String calculateChecksumFromFile() throws IOException {
+        return ChecksumUtil.calculateChecksum(file);
+    }
+
+    @Benchmark
+    public String calculateChecksumFromBytes() {
+        return ChecksumUtil.calculateChecksum(content);
+    }
+}
@@ -0,0 +1,68 @@
+package com.shelzi.jdbcmigrate.benchmark;
+
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+import com.shelzi.jdbcmigrate.io.MigrationFileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Обход директории с фильтром по regex и сортировка по версии
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmark.xml")
+public class MigrationDiscoveryBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private Path root;
+    private List<String> shuffledNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = MigrationTreeGenerator.generateTree(Files.createTempDirectory("discovery"), files, 1, 100);
+        shuffledNames = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            shuffledNames.add(MigrationTreeGenerator.fileName(i));
+        }
+        Collections.shuffle(shuffledNames, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        MigrationTreeGenerator.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public List<Path> getMigrationFiles() throws MigrationFileReaderException {
+        return MigrationFileReader.getMigrationFiles(root.toString());
+    }
+
+    // Только компаратор: compareByVersion разбирает обе версии на каждое сравнение
+    @Benchmark
+    public List<String> sortByVersion() {
+        List<String> names = new ArrayList<>(shuffledNames);
+        names.sort(MigrationFileReader::compareByVersion);
+        return names;
+    }
+}
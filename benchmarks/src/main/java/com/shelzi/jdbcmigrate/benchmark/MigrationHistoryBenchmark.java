@@ -0,0 +1,109 @@
+package com.shelzi.jdbcmigrate.benchmark;
+
+import com.shelzi.jdbcmigrate.controller.MigrationManager;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+import com.shelzi.jdbcmigrate.exception.MigrationManagerException;
+import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import com.shelzi.jdbcmigrate.util.HistorySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Чтение migration_history из in-memory H2 через MigrationManager: файлы уже прочитаны,
+// измеряется загрузка истории и сверка контрольных сумм
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmark.xml")
+public class MigrationHistoryBenchmark {
+    @Param({"1000", "100000"})
+    public int historySize;
+
+    private Connection connection;
+    private MigrationManager migrationManager;
+    private MigrationManager cachedMigrationManager;
+
+    @Setup
+    public void setUp() throws SQLException, MigrationFileReaderException, MigrationManagerException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:history_" + historySize, "sa", "");
+        List<ResolvedMigration> migrations = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            String fileName = MigrationTreeGenerator.fileName(i);
+            byte[] content = fileName.getBytes(StandardCharsets.UTF_8);
+            migrations.add(new ResolvedMigration(Path.of(fileName), content, ChecksumUtil.calculateChecksum(content)));
+        }
+        MigrationConfig config = new MigrationConfig("unused");
+        migrationManager = new MigrationManager(connection, config, migrations);
+        // Первый вызов создаёт migration_history
+        migrationManager.getMigrations();
+
+        connection.setAutoCommit(false);
+        String insertSQL = "INSERT INTO migration_history (version, successful, checksum) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+            for (int i = 0; i < historySize; i++) {
+                ResolvedMigration migration = migrations.get(i);
+                pstmt.setString(1, migration.getFileName());
+                // Небольшая доля неудачных строк, как в живой истории
+                pstmt.setBoolean(2, i % 50 != 0);
+                pstmt.setString(3, migration.getChecksum());
+                pstmt.addBatch();
+                if (i % 1000 == 999) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        // Снимок истории в памяти, как в режиме watch: дальше читаются только строки новее watermark
+        cachedMigrationManager = new MigrationManager(connection, config, migrations, new AtomicReference<HistorySnapshot>());
+        cachedMigrationManager.getMigrations();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public List<ResolvedMigration> getMigrations() throws MigrationFileReaderException, MigrationManagerException {
+        return migrationManager.getMigrations();
+    }
+
+    @Benchmark
+    public List<ResolvedMigration> getMigrationsWithHistoryCache()
+            throws MigrationFileReaderException, MigrationManagerException {
+        return cachedMigrationManager.getMigrations();
+    }
+
+    // Ведомый процесс: только имена успешно применённых версий
+    @Benchmark
+    public boolean hasUnappliedFiles() throws MigrationFileReaderException, MigrationManagerException {
+        return migrationManager.hasUnappliedFiles();
+    }
+}
@@ -0,0 +1,83 @@
+package com.shelzi.jdbcmigrate.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Синтетические деревья миграций для бенчмарков. Содержимое детерминировано (фиксированный seed),
+// чтобы замеры разных релизов можно было сравнивать между собой.
+public class MigrationTreeGenerator {
+    private static final long SEED = 42;
+
+    private MigrationTreeGenerator() {
+    }
+
+    // files миграций вида V<major>_<minor>__create_bench_<n>.sql, разложенных по поддиректориям
+    // по filesPerDirectory штук. В каждой поддиректории лежит и посторонний файл - его должен отсечь фильтр.
+    public static Path generateTree(Path root, int files, int statementsPerFile, int filesPerDirectory) throws IOException {
+        Files.createDirectories(root);
+        for (int i = 0; i < files; i++) {
+            Path directory = root.resolve(String.format("release_%04d", i / filesPerDirectory));
+            if (i % filesPerDirectory == 0) {
+                Files.createDirectories(directory);
+                Files.writeString(directory.resolve("README.txt"), "Not a migration.\n");
+            }
+            Path file = directory.resolve(fileName(i));
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writeMigration(writer, i, statementsPerFile);
+            }
+        }
+        return root;
+    }
+
+    // Версии специально смешанной длины: V1_9 должна идти раньше V1_10
+    public static String fileName(int index) {
+        return "V" + (index / 100 + 1) + "_" + (index % 100) + "__create_bench_" + index + ".sql";
+    }
+
+    // Файл заданного размера из INSERT со случайными значениями - для хеширования и разбора выражений.
+    // Последнее выражение обрезается по размеру файла
+    public static Path generateFile(Path file, long sizeBytes) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Random random = new Random(SEED);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            long remaining = sizeBytes;
+            for (int row = 1; remaining > 0; row++) {
+                byte[] statement = ("INSERT INTO bench_data (id, name, amount) VALUES (" + row + ", 'name "
+                        + Long.toHexString(random.nextLong()) + "', " + random.nextInt(1_000_000) + "."
+                        + random.nextInt(100) + ");\n").getBytes(StandardCharsets.UTF_8);
+                int length = (int) Math.min(statement.length, remaining);
+                out.write(statement, 0, length);
+                remaining -= length;
+            }
+        }
+        return file;
+    }
+
+    public static void deleteRecursively(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void writeMigration(BufferedWriter writer, int index, int statements) throws IOException {
+        String table = "bench_" + index;
+        writer.write("CREATE TABLE " + table + " (id INT PRIMARY KEY, name VARCHAR(100), amount DECIMAL(12, 2));\n");
+        for (int row = 1; row < statements; row++) {
+            writer.write("INSERT INTO " + table + " (id, name, amount) VALUES (" + row + ", 'row " + row + "', "
+                    + row * 10 + ".50);\n");
+        }
+    }
+}
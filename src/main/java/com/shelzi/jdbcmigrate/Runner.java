@@ -2,10 +2,28 @@ package com.shelzi.jdbcmigrate;
 
 import com.shelzi.jdbcmigrate.controller.MigrationTool;
 import com.shelzi.jdbcmigrate.controller.MigrationToolImpl;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+
+import java.util.Arrays;
 
 public class Runner {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws MigrationException {
         MigrationTool migrationTool = new MigrationToolImpl();
+        if (args.length > 0 && args[0].equals("compact")) {
+            // compact <версия> [конфигурация]
+            migrationTool.compact(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("watch")) {
+            // watch [конфигурация]
+            migrationTool.watch(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("index")) {
+            // index <директория миграций>; исключение завершает процесс с ненулевым кодом и валит сборку
+            migrationTool.index(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         migrationTool.migrate(args);
     }
 }
@@ -0,0 +1,133 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.exception.LockException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Сессионная advisory-блокировка PostgreSQL. Сервер снимает её сам, как только сессия умирает,
+// поэтому упавший процесс не блокирует следующий запуск; ожидание - на стороне сервера, без опроса.
+public class AdvisoryLockExecutor implements LockStrategy {
+    // Первая половина ключа отделяет наши блокировки от advisory-блокировок приложения
+    private static final int LOCK_NAMESPACE = 0x6a6d6967;
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HEARTBEAT_MILLIS = 10_000;
+
+    private final Connection connection;
+    private int lockKey;
+    private volatile long backendPid;
+    private volatile boolean held;
+
+    public AdvisoryLockExecutor(Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public synchronized boolean acquire(long waitMillis) throws SQLException, LockException {
+        lockKey = computeLockKey();
+        backendPid = Long.parseLong(queryString("SELECT pg_backend_pid()"));
+        if (waitMillis <= 0) {
+            held = queryBoolean("SELECT pg_try_advisory_lock(?, ?)");
+            return held;
+        }
+
+        // lock_timeout ограничивает ожидание pg_advisory_lock; прежнее значение возвращаем после
+        String previousTimeout = queryString("SELECT current_setting('lock_timeout')");
+        setLockTimeout(waitMillis + "ms");
+        try {
+            // pg_advisory_lock возвращает void - важен только факт, что запрос не упал по таймауту
+            try (PreparedStatement pstmt = prepareWithKey("SELECT pg_advisory_lock(?, ?)")) {
+                pstmt.executeQuery().close();
+            }
+            held = true;
+        } catch (SQLException e) {
+            if (!LOCK_NOT_AVAILABLE.equals(e.getSQLState())) {
+                throw new LockException("Error while waiting for the advisory lock", e);
+            }
+            held = false;
+        } finally {
+            setLockTimeout(previousTimeout);
+        }
+        return held;
+    }
+
+    @Override
+    public boolean isHeld() {
+        return held;
+    }
+
+    // Блокировка из двух int4 видна в pg_locks как classid/objid с objsubid = 2; oid беззнаковый
+    @Override
+    public String getFencingCondition() {
+        if (backendPid == 0) {
+            return null;
+        }
+        return "EXISTS (SELECT 1 FROM pg_locks WHERE locktype = 'advisory' AND classid::bigint = " + LOCK_NAMESPACE
+                + " AND objid::bigint = " + Integer.toUnsignedLong(lockKey) + " AND objsubid = 2 AND pid = " + backendPid
+                + " AND granted)";
+    }
+
+    @Override
+    public long getRefreshPeriodMillis() {
+        return HEARTBEAT_MILLIS;
+    }
+
+    // Блокировка живёт столько же, сколько сессия: heartbeat только проверяет, что сессия жива
+    @Override
+    public synchronized void refresh() throws SQLException {
+        if (held && !connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            held = false;
+            throw new SQLException("The session holding the advisory lock has been lost.");
+        }
+    }
+
+    @Override
+    public synchronized void release() throws SQLException {
+        if (held) {
+            held = false;
+            queryBoolean("SELECT pg_advisory_unlock(?, ?)");
+        }
+    }
+
+    // Одна блокировка на базу и схему, как и строка migration_lock в схеме
+    private int computeLockKey() throws SQLException {
+        return queryString("SELECT current_database() || '.' || coalesce(current_schema(), '')").hashCode();
+    }
+
+    private boolean queryBoolean(String sql) throws SQLException {
+        try (PreparedStatement pstmt = prepareWithKey(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private PreparedStatement prepareWithKey(String sql) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, LOCK_NAMESPACE);
+            pstmt.setInt(2, lockKey);
+            return pstmt;
+        } catch (SQLException e) {
+            pstmt.close();
+            throw e;
+        }
+    }
+
+    private String queryString(String sql) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private void setLockTimeout(String value) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT set_config('lock_timeout', ?, false)")) {
+            pstmt.setString(1, value);
+            pstmt.executeQuery().close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.database.ConnectionFactory;
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.entity.SqlStatement;
+import com.shelzi.jdbcmigrate.exception.MigrationExecutorException;
+import com.shelzi.jdbcmigrate.io.MigrationFileReader;
+import com.shelzi.jdbcmigrate.io.SqlStatementSplitter;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Миграция-backfill: один шаблон выражения, который выполняется порциями по диапазонам целочисленного ключа.
+//
+//   -- backfill: "user"
+//   -- key: id
+//   -- chunk: 10000
+//   -- parallelism: 4
+//   -- target.millis: 500
+//   -- health: SELECT count(*) < 50 FROM pg_stat_activity WHERE state = 'active'
+//   UPDATE "user" SET age = 0 WHERE age IS NULL AND id > :from AND id <= :to;
+//
+// Границы порций ищутся keyset-запросом по индексу ключа, каждая порция коммитится отдельно.
+// Прогресс (ключ, до которого всё обработано) пишется в migration_backfill, и после падения
+// backfill продолжается с него. Порции после этой точки могут выполниться повторно,
+// поэтому шаблон должен быть идемпотентным (WHERE age IS NULL и т.п.).
+class BackfillRunner {
+    static final String BACKFILL_DIRECTIVE = "backfill";
+    private static final Pattern PLACEHOLDER = Pattern.compile(":(from|to)\\b");
+    private static final int MIN_CHUNK = 10;
+    private static final long PROGRESS_LOG_MILLIS = 10_000;
+
+    private final Connection connection;
+    private final ConnectionCreator connectionCreator;
+    private final ResolvedMigration migration;
+    private final SqlDialect dialect;
+    private final String table;
+    private final String key;
+    private final int maxChunk;
+    private final int parallelism;
+    private final long targetMillis;
+    private final String healthQuery;
+    private final long pauseMillis;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private int chunk;
+
+    BackfillRunner(Connection connection, ConnectionCreator connectionCreator, ResolvedMigration migration,
+                   Map<String, String> header, SqlDialect dialect) throws MigrationExecutorException {
+        this.connection = connection;
+        this.connectionCreator = connectionCreator;
+        this.migration = migration;
+        this.dialect = dialect;
+        this.table = header.get(BACKFILL_DIRECTIVE);
+        if (table == null || table.isBlank()) {
+            throw new MigrationExecutorException("Backfill " + migration.getFileName() + " doesn't name a table.");
+        }
+        this.key = header.getOrDefault("key", "id");
+        this.maxChunk = Math.max(MIN_CHUNK, parseInt(header, "chunk", 1000));
+        this.parallelism = Math.max(1, parseInt(header, "parallelism", 1));
+        this.targetMillis = parseInt(header, "target.millis", 0);
+        this.healthQuery = header.get("health");
+        this.pauseMillis = Math.max(100, parseInt(header, "pause.millis", 1000));
+        this.chunk = maxChunk;
+    }
+
+    static boolean isBackfill(Map<String, String> header) {
+        return header.containsKey(BACKFILL_DIRECTIVE);
+    }
+
+    // Возвращает число изменённых строк
+    long run() throws SQLException, IOException, MigrationExecutorException {
+        Template template = readTemplate();
+        boolean parallel = parallelism > 1 && connectionCreator != null;
+        if (parallelism > 1 && connectionCreator == null) {
+            logger.log(Level.WARN, "Parallel backfill requires a connection creator, " + migration.getFileName()
+                    + " runs on a single connection.");
+        }
+        if (parallel) {
+            // Сверх основного соединения и блокировки: координатор и рабочие
+            try {
+                ConnectionFactory.checkPoolCapacity(connectionCreator, parallelism + 3);
+            } catch (IllegalArgumentException e) {
+                throw new MigrationExecutorException("Backfill " + migration.getFileName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        // Границы и прогресс - на отдельном соединении с autocommit, чтобы прогресс фиксировался сразу
+        Connection coordinator = parallel ? openConnection() : connection;
+        try {
+            ensureProgressTableExists(coordinator);
+            long[] range = loadRange(coordinator);
+            if (range == null) {
+                logger.log(Level.DEBUG, "Backfill " + migration.getFileName() + ": table " + table + " is empty.");
+                return 0;
+            }
+            Long checkpoint = loadCheckpoint(coordinator);
+            long from = checkpoint != null ? checkpoint : range[0] - 1;
+            if (checkpoint != null) {
+                logger.log(Level.INFO, "Backfill " + migration.getFileName() + " resumes after " + key + " = " + checkpoint);
+            }
+            long rows = parallel
+                    ? runParallel(coordinator, template, from, range[1])
+                    : runSequential(template, from, range[1]);
+            deleteCheckpoint(coordinator);
+            logger.log(Level.INFO, "Backfill " + migration.getFileName() + " finished, " + rows + " rows affected.");
+            return rows;
+        } finally {
+            if (coordinator != connection) {
+                closeQuietly(coordinator);
+            }
+        }
+    }
+
+    private long runSequential(Template template, long from, long max) throws SQLException, MigrationExecutorException {
+        Progress progress = new Progress(from);
+        while (from < max) {
+            awaitHealthy(connection);
+            long to = nextBoundary(connection, from, max);
+            ChunkResult result = runChunk(connection, template, from, to);
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            progress.completed(connection, result, max);
+            from = to;
+        }
+        return progress.rows;
+    }
+
+    // Координатор ищет границы и раздаёт порции; прогресс сдвигается только по непрерывному префиксу
+    // завершённых порций, потому что они завершаются не по порядку
+    private long runParallel(Connection coordinator, Template template, long from, long max)
+            throws SQLException, MigrationExecutorException {
+        BlockingQueue<Connection> workerConnections = new ArrayBlockingQueue<>(parallelism);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        CompletionService<ChunkResult> completionService = new ExecutorCompletionService<>(pool);
+        Progress progress = new Progress(from);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                workerConnections.add(openConnection());
+            }
+            int running = 0;
+            Throwable failure = null;
+            while (running > 0 || (from < max && failure == null)) {
+                while (running < parallelism && from < max && failure == null) {
+                    awaitHealthy(coordinator);
+                    long chunkFrom = from;
+                    long chunkTo = nextBoundary(coordinator, from, max);
+                    completionService.submit(() -> {
+                        Connection workerConnection = workerConnections.take();
+                        try {
+                            return runChunk(workerConnection, template, chunkFrom, chunkTo);
+                        } finally {
+                            workerConnections.put(workerConnection);
+                        }
+                    });
+                    running++;
+                    from = chunkTo;
+                }
+                Future<ChunkResult> finished = completionService.take();
+                running--;
+                try {
+                    progress.completed(coordinator, finished.get(), max);
+                } catch (ExecutionException e) {
+                    // Новые порции не раздаём, но дожидаемся уже начатых
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure instanceof SQLException) {
+                throw (SQLException) failure;
+            } else if (failure != null) {
+                throw new MigrationExecutorException("Backfill " + migration.getFileName() + " failed: " + failure, failure);
+            }
+            return progress.rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationExecutorException("Interrupted while running backfill " + migration.getFileName(), e);
+        } finally {
+            pool.shutdownNow();
+            for (Connection workerConnection : workerConnections) {
+                closeQuietly(workerConnection);
+            }
+        }
+    }
+
+    private ChunkResult runChunk(Connection workerConnection, Template template, long from, long to) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement pstmt = workerConnection.prepareStatement(template.sql)) {
+            for (int i = 0; i < template.parameters.size(); i++) {
+                pstmt.setLong(i + 1, template.parameters.get(i) ? from : to);
+            }
+            long rows = Math.max(0, pstmt.executeUpdate());
+            MigrationMetrics.getInstance().addStatements(1, rows);
+            return new ChunkResult(from, to, rows, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (SQLException e) {
+            throw new SQLException("Backfill chunk " + key + " in (" + from + ", " + to + "] failed: " + e.getMessage(),
+                    e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    // Правая граница порции из chunk строк: keyset-запрос по индексу, без OFFSET по всей таблице
+    private long nextBoundary(Connection boundaryConnection, long from, long max) throws SQLException {
+        String query = "SELECT " + key + " FROM " + table + " WHERE " + key + " > ? AND " + key + " <= ? ORDER BY "
+                + key + " LIMIT 1 OFFSET ?";
+        try (PreparedStatement pstmt = boundaryConnection.prepareStatement(query)) {
+            pstmt.setLong(1, from);
+            pstmt.setLong(2, max);
+            pstmt.setInt(3, chunk - 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : max;
+            }
+        }
+    }
+
+    // Порция дольше target.millis - уменьшаем её вдвое, заметно быстрее - увеличиваем на четверть.
+    // Если и минимальная порция слишком долгая, дополнительно ждём, отдавая базу основной нагрузке
+    private void adapt(long latencyMillis) throws MigrationExecutorException {
+        if (targetMillis <= 0) {
+            return;
+        }
+        if (latencyMillis > targetMillis) {
+            if (chunk == MIN_CHUNK) {
+                sleep(Math.min(latencyMillis - targetMillis, pauseMillis));
+            }
+            chunk = Math.max(MIN_CHUNK, chunk / 2);
+        } else if (latencyMillis < targetMillis / 2) {
+            chunk = Math.min(maxChunk, chunk + Math.max(1, chunk / 4));
+        }
+    }
+
+    private void awaitHealthy(Connection healthConnection) throws SQLException, MigrationExecutorException {
+        if (healthQuery == null || healthQuery.isBlank()) {
+            return;
+        }
+        boolean paused = false;
+        while (!isHealthy(healthConnection)) {
+            if (!paused) {
+                logger.log(Level.WARN, "Backfill " + migration.getFileName() + " paused: health check failed.");
+                paused = true;
+            }
+            sleep(pauseMillis);
+        }
+        if (paused) {
+            logger.log(Level.INFO, "Backfill " + migration.getFileName() + " resumed.");
+        }
+    }
+
+    // Первая колонка первой строки: true или положительное число - можно продолжать
+    private boolean isHealthy(Connection healthConnection) throws SQLException {
+        try (Statement stmt = healthConnection.createStatement();
+             ResultSet rs = stmt.executeQuery(healthQuery)) {
+            if (!rs.next()) {
+                return false;
+            }
+            Object value = rs.getObject(1);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue() > 0;
+            }
+            return value != null;
+        }
+    }
+
+    private Template readTemplate() throws IOException, MigrationExecutorException {
+        List<String> statements = new ArrayList<>();
+        try (SqlStatementSplitter splitter = MigrationFileReader.openStatements(migration, dialect)) {
+            SqlStatement statement;
+            while ((statement = splitter.nextStatement()) != null) {
+                statements.add(statement.getSql());
+            }
+        }
+        if (statements.size() != 1) {
+            throw new MigrationExecutorException("Backfill " + migration.getFileName()
+                    + " must contain exactly one statement, found " + statements.size());
+        }
+        Matcher matcher = PLACEHOLDER.matcher(statements.get(0));
+        StringBuilder sql = new StringBuilder();
+        List<Boolean> parameters = new ArrayList<>();
+        while (matcher.find()) {
+            parameters.add(matcher.group(1).equals("from"));
+            matcher.appendReplacement(sql, "?");
+        }
+        matcher.appendTail(sql);
+        if (!parameters.contains(Boolean.TRUE) || !parameters.contains(Boolean.FALSE)) {
+            throw new MigrationExecutorException("Backfill " + migration.getFileName()
+                    + " must use both :from and :to, e.g. " + key + " > :from AND " + key + " <= :to");
+        }
+        return new Template(sql.toString(), parameters);
+    }
+
+    // null - таблица пуста
+    private long[] loadRange(Connection rangeConnection) throws SQLException, MigrationExecutorException {
+        String query = "SELECT MIN(" + key + "), MAX(" + key + ") FROM " + table;
+        try (Statement stmt = rangeConnection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int type = metaData.getColumnType(1);
+            if (type != Types.INTEGER && type != Types.BIGINT && type != Types.SMALLINT && type != Types.TINYINT) {
+                throw new MigrationExecutorException("Backfill key " + key + " of " + table + " must be an integer column.");
+            }
+            rs.next();
+            long min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return null;
+            }
+            return new long[]{min, rs.getLong(2)};
+        }
+    }
+
+    private void ensureProgressTableExists(Connection progressConnection) throws SQLException {
+        try (Statement stmt = progressConnection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS migration_backfill (
+                        version VARCHAR(100) NOT NULL PRIMARY KEY,
+                        watermark BIGINT NOT NULL,
+                        rows_affected BIGINT NOT NULL,
+                        updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )""");
+        }
+        commitIfNeeded(progressConnection);
+    }
+
+    private Long loadCheckpoint(Connection progressConnection) throws SQLException {
+        try (PreparedStatement pstmt = progressConnection.prepareStatement(
+                "SELECT watermark FROM migration_backfill WHERE version = ?")) {
+            pstmt.setString(1, migration.getFileName());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    private void saveCheckpoint(Connection progressConnection, long watermark, long rows) throws SQLException {
+        try (PreparedStatement update = progressConnection.prepareStatement(
+                "UPDATE migration_backfill SET watermark = ?, rows_affected = ?, updated_at = CURRENT_TIMESTAMP WHERE version = ?")) {
+            update.setLong(1, watermark);
+            update.setLong(2, rows);
+            update.setString(3, migration.getFileName());
+            if (update.executeUpdate() == 0) {
+                try (PreparedStatement insert = progressConnection.prepareStatement(
+                        "INSERT INTO migration_backfill (version, watermark, rows_affected) VALUES (?, ?, ?)")) {
+                    insert.setString(1, migration.getFileName());
+                    insert.setLong(2, watermark);
+                    insert.setLong(3, rows);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        commitIfNeeded(progressConnection);
+    }
+
+    private void deleteCheckpoint(Connection progressConnection) throws SQLException {
+        try (PreparedStatement pstmt = progressConnection.prepareStatement("DELETE FROM migration_backfill WHERE version = ?")) {
+            pstmt.setString(1, migration.getFileName());
+            pstmt.executeUpdate();
+        }
+        commitIfNeeded(progressConnection);
+    }
+
+    private Connection openConnection() throws SQLException, MigrationExecutorException {
+        Connection workerConnection;
+        try {
+            workerConnection = connectionCreator.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new MigrationExecutorException("Database driver not found: " + e.getMessage(), e);
+        }
+        String schema = connection.getSchema();
+        if (schema != null) {
+            workerConnection.setSchema(schema);
+        }
+        workerConnection.setAutoCommit(true);
+        return workerConnection;
+    }
+
+    private static void commitIfNeeded(Connection connection) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    private void closeQuietly(Connection workerConnection) {
+        try {
+            workerConnection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARN, "Failed to close backfill connection: " + e.getMessage());
+        }
+    }
+
+    // Прерывание останавливает backfill: иначе awaitHealthy крутился бы без пауз
+    private void sleep(long millis) throws MigrationExecutorException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationExecutorException("Interrupted while running backfill " + migration.getFileName(), e);
+        }
+    }
+
+    private static int parseInt(Map<String, String> header, String name, int defaultValue) throws MigrationExecutorException {
+        String value = header.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.strip());
+        } catch (NumberFormatException e) {
+            throw new MigrationExecutorException("Invalid backfill directive " + name + ": " + value);
+        }
+    }
+
+    private record Template(String sql, List<Boolean> parameters) {
+    }
+
+    private record ChunkResult(long from, long to, long rows, long millis) {
+    }
+
+    private final class Progress {
+        private final Map<Long, Long> completed = new HashMap<>();
+        private long watermark;
+        private long rows;
+        private long chunks;
+        private long loggedAt = System.currentTimeMillis();
+
+        Progress(long watermark) {
+            this.watermark = watermark;
+        }
+
+        void completed(Connection progressConnection, ChunkResult result, long max)
+                throws SQLException, MigrationExecutorException {
+            rows += result.rows();
+            chunks++;
+            adapt(result.millis());
+            completed.put(result.from(), result.to());
+            long previous = watermark;
+            Long next;
+            while ((next = completed.remove(watermark)) != null) {
+                watermark = next;
+            }
+            if (watermark != previous) {
+                saveCheckpoint(progressConnection, watermark, rows);
+            }
+            if (System.currentTimeMillis() - loggedAt >= PROGRESS_LOG_MILLIS) {
+                loggedAt = System.currentTimeMillis();
+                logger.log(Level.INFO, "Backfill " + migration.getFileName() + ": " + chunks + " chunks, " + rows
+                        + " rows, " + key + " " + watermark + " of " + max + ", chunk size " + chunk);
+            }
+        }
+    }
+}
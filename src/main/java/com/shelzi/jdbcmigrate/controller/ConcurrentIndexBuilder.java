@@ -0,0 +1,214 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.SqlStatement;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// CREATE INDEX CONCURRENTLY подряд идущими группами: индексы из группы друг от друга не зависят
+// и строятся одновременно, каждый на своём соединении. Работает только вне транзакции (autocommit).
+//
+// Упавшая сборка оставляет в PostgreSQL INVALID индекс, из-за которого повтор падает на "already exists",
+// а с IF NOT EXISTS молча пропускается. Такой индекс удаляем и после ошибки, и перед сборкой.
+class ConcurrentIndexBuilder {
+    private static final Pattern CREATE_INDEX_CONCURRENTLY = Pattern.compile(
+            "CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+CONCURRENTLY\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?"
+                    + "((?:\"[^\"]+\"|[\\w$]+)(?:\\s*\\.\\s*(?:\"[^\"]+\"|[\\w$]+))?)\\s+ON\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NAME_PART = Pattern.compile("\"([^\"]+)\"|([\\w$]+)");
+
+    private final Connection connection;
+    private final ConnectionCreator connectionCreator;
+    private final SqlDialect dialect;
+    private final int parallelism;
+    private final List<SqlStatement> pending = new ArrayList<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    ConcurrentIndexBuilder(Connection connection, ConnectionCreator connectionCreator, SqlDialect dialect, int parallelism) {
+        this.connection = connection;
+        this.connectionCreator = connectionCreator;
+        this.dialect = dialect;
+        this.parallelism = parallelism;
+    }
+
+    static boolean isConcurrentIndex(String sql) {
+        int start = StatementRunner.skipLeadingComments(sql);
+        // Дешёвая проверка первым делом: большинство выражений в файле - не CREATE
+        return sql.regionMatches(true, start, "CREATE", 0, 6) && matchIndex(sql).lookingAt();
+    }
+
+    void add(SqlStatement statement) {
+        pending.add(statement);
+    }
+
+    // Строит накопленную группу; при ошибке дожидается остальных индексов группы и бросает первую ошибку
+    void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<SqlStatement> group = new ArrayList<>(pending);
+        pending.clear();
+        int threads = Math.min(parallelism, group.size());
+        if (threads <= 1 || connectionCreator == null) {
+            for (SqlStatement statement : group) {
+                build(connection, statement);
+            }
+            return;
+        }
+
+        logger.log(Level.DEBUG, "Building " + group.size() + " indexes concurrently on " + threads + " connections.");
+        BlockingQueue<Connection> workerConnections = new ArrayBlockingQueue<>(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(pool);
+        try {
+            for (int i = 0; i < threads; i++) {
+                workerConnections.add(openConnection());
+            }
+            for (SqlStatement statement : group) {
+                completionService.submit(() -> {
+                    Connection workerConnection = workerConnections.take();
+                    try {
+                        build(workerConnection, statement);
+                        return null;
+                    } finally {
+                        workerConnections.put(workerConnection);
+                    }
+                });
+            }
+            SQLException failure = null;
+            for (int i = 0; i < group.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof SQLException
+                                ? (SQLException) e.getCause()
+                                : new SQLException("Index build failed: " + e.getCause(), e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while building indexes.", e);
+        } finally {
+            pool.shutdownNow();
+            for (Connection workerConnection : workerConnections) {
+                closeQuietly(workerConnection);
+            }
+        }
+    }
+
+    private void build(Connection buildConnection, SqlStatement statement) throws SQLException {
+        String indexName = indexName(statement.getSql());
+        if (indexName != null) {
+            dropInvalidIndex(buildConnection, indexName);
+        }
+        try (Statement stmt = buildConnection.createStatement()) {
+            stmt.execute(statement.getSql());
+            MigrationMetrics.getInstance().addStatements(1, 0);
+        } catch (SQLException e) {
+            if (indexName != null) {
+                try {
+                    dropInvalidIndex(buildConnection, indexName);
+                } catch (SQLException cleanupError) {
+                    e.addSuppressed(cleanupError);
+                }
+            }
+            throw new SQLException("Statement #" + statement.getIndex() + " at line " + statement.getLine()
+                    + " failed: " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    private void dropInvalidIndex(Connection buildConnection, String indexName) throws SQLException {
+        String[] parts = splitQualifiedName(indexName);
+        String query = "SELECT 1 FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid "
+                + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE NOT i.indisvalid AND c.relname = ? AND n.nspname = "
+                + (parts[0] == null ? "current_schema()" : "?");
+        try (PreparedStatement pstmt = buildConnection.prepareStatement(query)) {
+            pstmt.setString(1, parts[1]);
+            if (parts[0] != null) {
+                pstmt.setString(2, parts[0]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+            }
+        }
+        logger.log(Level.WARN, "Dropping invalid index " + indexName + " left by a failed build.");
+        try (Statement stmt = buildConnection.createStatement()) {
+            stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        }
+    }
+
+    // Имя индекса из выражения; null - не PostgreSQL, INVALID индексов там не бывает
+    private String indexName(String sql) {
+        if (dialect != SqlDialect.POSTGRESQL) {
+            return null;
+        }
+        Matcher matcher = matchIndex(sql);
+        return matcher.lookingAt() ? matcher.group(1).replaceAll("\\s+", "") : null;
+    }
+
+    // [схема или null, имя] с правилами PostgreSQL: без кавычек - нижний регистр
+    private static String[] splitQualifiedName(String qualifiedName) {
+        List<String> parts = new ArrayList<>(2);
+        Matcher matcher = NAME_PART.matcher(qualifiedName);
+        while (matcher.find()) {
+            parts.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2).toLowerCase(Locale.ROOT));
+        }
+        return parts.size() == 1 ? new String[]{null, parts.get(0)} : new String[]{parts.get(0), parts.get(1)};
+    }
+
+    private static Matcher matchIndex(String sql) {
+        return CREATE_INDEX_CONCURRENTLY.matcher(sql).region(StatementRunner.skipLeadingComments(sql), sql.length());
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection workerConnection;
+        try {
+            workerConnection = connectionCreator.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Database driver not found: " + e.getMessage(), e);
+        }
+        String schema = connection.getSchema();
+        if (schema != null) {
+            workerConnection.setSchema(schema);
+        }
+        workerConnection.setAutoCommit(true);
+        return workerConnection;
+    }
+
+    private void closeQuietly(Connection workerConnection) {
+        try {
+            workerConnection.close();
+        } catch (SQLException e) {
+            logger.log(Level.WARN, "Failed to close index build connection: " + e.getMessage());
+        }
+    }
+}
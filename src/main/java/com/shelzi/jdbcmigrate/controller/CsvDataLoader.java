@@ -0,0 +1,233 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationExecutorException;
+import com.shelzi.jdbcmigrate.io.MigrationFileReader;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Миграция с данными: V5__load_countries.csv, таблица и колонки - в директивах в начале файла.
+//
+//   -- table: country
+//   -- columns: code, name
+//   -- header: true
+//   code,name
+//   AD,Andorra
+//
+// В PostgreSQL файл целиком уходит в COPY ... FROM STDIN, в остальных базах - пачками INSERT с параметрами.
+// Формат как у COPY (FORMAT csv): пустое поле без кавычек - NULL, "" - пустая строка.
+class CsvDataLoader {
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Connection connection;
+    private final ResolvedMigration migration;
+    private final SqlDialect dialect;
+    private final int batchSize;
+    private final String table;
+    private final List<String> columns;
+    private final boolean header;
+    private final char delimiter;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private int headerLines;
+    private int line;
+    // Строка файла, с которой началась последняя прочитанная запись
+    private int recordLine;
+
+    CsvDataLoader(Connection connection, ResolvedMigration migration, Map<String, String> directives,
+                  SqlDialect dialect, int batchSize) throws MigrationExecutorException {
+        this.connection = connection;
+        this.migration = migration;
+        this.dialect = dialect;
+        this.batchSize = batchSize > 1 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.table = directives.get("table");
+        if (table == null || table.isBlank()) {
+            throw new MigrationExecutorException("Data migration " + migration.getFileName() + " doesn't name a table.");
+        }
+        String columnList = directives.get("columns");
+        this.columns = columnList == null || columnList.isBlank()
+                ? Collections.emptyList()
+                : List.of(columnList.strip().split("\\s*,\\s*"));
+        this.header = Boolean.parseBoolean(directives.getOrDefault("header", "false"));
+        String delimiterValue = directives.getOrDefault("delimiter", ",");
+        if (delimiterValue.equals("\\t")) {
+            delimiterValue = "\t";
+        }
+        if (delimiterValue.length() != 1) {
+            throw new MigrationExecutorException("Delimiter of " + migration.getFileName() + " must be a single character.");
+        }
+        this.delimiter = delimiterValue.charAt(0);
+    }
+
+    // Возвращает число загруженных строк
+    long load() throws SQLException, IOException, MigrationExecutorException {
+        headerLines = MigrationFileReader.headerLines(migration);
+        long rows = dialect == SqlDialect.POSTGRESQL && connection.isWrapperFor(PGConnection.class)
+                ? copy()
+                : insert();
+        logger.log(Level.DEBUG, "Data migration " + migration.getFileName() + ": " + rows + " rows loaded into " + table);
+        return rows;
+    }
+
+    private long copy() throws SQLException, IOException, MigrationExecutorException {
+        List<String> targetColumns = columns;
+        if (header && targetColumns.isEmpty()) {
+            // COPY сопоставляет поля с колонками по порядку и заголовок только пропускает -
+            // передаём имена из него явно, чтобы файл грузился так же, как через INSERT
+            try (Reader reader = openReader()) {
+                line = headerLines + 1;
+                List<String> names = readRecord(reader);
+                if (names != null) {
+                    targetColumns = names;
+                }
+            }
+        }
+        String sql = "COPY " + table + (targetColumns.isEmpty() ? "" : " (" + String.join(", ", targetColumns) + ")")
+                + " FROM STDIN WITH (FORMAT csv, HEADER " + header + ", DELIMITER '" + (delimiter == '\'' ? "''" : delimiter) + "')";
+        try (InputStream data = MigrationFileReader.openData(migration)) {
+            long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql, data, COPY_BUFFER_SIZE);
+            MigrationMetrics.getInstance().addStatements(1, rows);
+            return rows;
+        } catch (SQLException e) {
+            // Строки в ошибке COPY считаются от начала данных, без директив
+            throw new SQLException(migration.getFileName() + ", data starts at line " + (headerLines + 1) + ": "
+                    + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    private long insert() throws SQLException, IOException, MigrationExecutorException {
+        try (Reader reader = openReader()) {
+            line = headerLines + 1;
+            List<String> targetColumns = columns;
+            if (header) {
+                List<String> names = readRecord(reader);
+                // Без директивы columns берём имена колонок из первой строки файла
+                if (targetColumns.isEmpty() && names != null) {
+                    targetColumns = names;
+                }
+            }
+
+            List<String> record = readRecord(reader);
+            if (record == null) {
+                return 0;
+            }
+            int width = targetColumns.isEmpty() ? record.size() : targetColumns.size();
+            String sql = "INSERT INTO " + table + (targetColumns.isEmpty() ? "" : " (" + String.join(", ", targetColumns) + ")")
+                    + " VALUES (" + String.join(", ", Collections.nCopies(width, "?")) + ")";
+
+            long rows = 0;
+            int batched = 0;
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                while (record != null) {
+                    if (record.size() != width) {
+                        throw new MigrationExecutorException(migration.getFileName() + ", line " + recordLine + ": expected "
+                                + width + " fields, found " + record.size());
+                    }
+                    for (int i = 0; i < width; i++) {
+                        pstmt.setString(i + 1, record.get(i));
+                    }
+                    pstmt.addBatch();
+                    if (++batched >= batchSize) {
+                        rows += flush(pstmt, batched);
+                        batched = 0;
+                    }
+                    record = readRecord(reader);
+                }
+                if (batched > 0) {
+                    rows += flush(pstmt, batched);
+                }
+            }
+            return rows;
+        }
+    }
+
+    private Reader openReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(MigrationFileReader.openData(migration), StandardCharsets.UTF_8),
+                COPY_BUFFER_SIZE);
+    }
+
+    private long flush(PreparedStatement pstmt, int batched) throws SQLException {
+        pstmt.executeBatch();
+        MigrationMetrics.getInstance().addStatements(1, batched);
+        return batched;
+    }
+
+    // Одна запись CSV; поле в кавычках может содержать разделитель, "" и переводы строк. null - конец файла
+    private List<String> readRecord(Reader reader) throws IOException, MigrationExecutorException {
+        int c = reader.read();
+        while (c == '\r' || c == '\n') {
+            if (c == '\n') {
+                line++;
+            }
+            c = reader.read();
+        }
+        if (c == -1) {
+            return null;
+        }
+        recordLine = line;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new MigrationExecutorException(migration.getFileName() + ", line " + recordLine + ": unterminated quoted field");
+                }
+                if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        reader.reset();
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == delimiter || c == '\n' || c == '\r' || c == -1) {
+                fields.add(field.length() == 0 && !quoted ? null : field.toString());
+                field.setLength(0);
+                quoted = false;
+                if (c != delimiter) {
+                    if (c == '\r') {
+                        reader.mark(1);
+                        if (reader.read() != '\n') {
+                            reader.reset();
+                        }
+                    }
+                    line++;
+                    return fields;
+                }
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                quoted = true;
+                inQuotes = true;
+            } else {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+}
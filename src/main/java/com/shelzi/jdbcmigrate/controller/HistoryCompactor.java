@@ -0,0 +1,228 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.MigrationCatalog;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.MigrationVersion;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.LockException;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+import com.shelzi.jdbcmigrate.exception.MigrationManagerException;
+import com.shelzi.jdbcmigrate.io.MigrationResolver;
+import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Сжатие истории: строки до выбранной версии переносятся в migration_history_archive
+// и заменяются одной строкой-baseline с общей контрольной суммой всех файлов до неё
+public class HistoryCompactor {
+    static final String BASELINE_PREFIX = "BASELINE:";
+    // Длина колонки migration_history.version
+    private static final int VERSION_MAX_LENGTH = 100;
+
+    private final Connection connection;
+    private final MigrationConfig config;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public HistoryCompactor(Connection connection, MigrationConfig config) {
+        this.connection = connection;
+        this.config = config;
+    }
+
+    // Версия строки-baseline: "BASELINE:V120__last.sql" - последний файл, вошедший в неё.
+    // Если имя файла с префиксом не влезает в колонку, хранится только версия: "BASELINE:V120"
+    static boolean isBaseline(String version) {
+        return version.startsWith(BASELINE_PREFIX);
+    }
+
+    static String baselineFileName(String version) {
+        return version.substring(BASELINE_PREFIX.length());
+    }
+
+    // SHA-256 по строкам "имя:checksum" в порядке версий
+    static String aggregateChecksum(List<ResolvedMigration> migrations) {
+        StringBuilder builder = new StringBuilder();
+        for (ResolvedMigration migration : migrations) {
+            builder.append(migration.getFileName()).append(':').append(migration.getChecksum()).append('\n');
+        }
+        return ChecksumUtil.calculateChecksum(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String baselineVersion(String lastFile) throws MigrationManagerException {
+        String version = BASELINE_PREFIX + lastFile;
+        if (version.length() <= VERSION_MAX_LENGTH) {
+            return version;
+        }
+        int end = lastFile.indexOf("__");
+        version = BASELINE_PREFIX + (end > 0 ? lastFile.substring(0, end) : lastFile);
+        if (version.length() > VERSION_MAX_LENGTH) {
+            throw new MigrationManagerException("Baseline marker for " + lastFile + " is longer than "
+                    + VERSION_MAX_LENGTH + " characters, the history can't be compacted at this version.");
+        }
+        return version;
+    }
+
+    // Возвращает число перенесённых в архив строк
+    public int compact(String upToVersion) throws SQLException, MigrationException {
+        SqlDialect dialect = SqlDialect.fromConnection(connection);
+        LockStrategy lock = LockStrategy.create(connection, config, dialect);
+        if (!lock.acquire(config.getLockWaitMillis())) {
+            throw new LockException("Another migration has already been launched.");
+        }
+        try {
+            MigrationHelper migrationHelper = new MigrationHelper(connection);
+            migrationHelper.ensureMigrationTableExists();
+            ensureArchiveTableExists();
+            return compact(upToVersion, lock);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private int compact(String upToVersion, LockStrategy lock) throws SQLException, MigrationException {
+        MigrationCatalog catalog = MigrationCatalog.of(new MigrationResolver(config).resolve(config.getMigrationDirectory()));
+        List<ResolvedMigration> covered = catalog.upTo(MigrationVersion.parse(upToVersion));
+        if (covered.isEmpty()) {
+            throw new MigrationManagerException("No migration files at or below " + upToVersion + " to compact.");
+        }
+        String lastFile = covered.get(covered.size() - 1).getFileName();
+        MigrationVersion lastVersion = covered.get(covered.size() - 1).getVersion();
+        String baselineVersion = baselineVersion(lastFile);
+
+        List<HistoryRow> rows = loadHistory();
+        HistoryRow baseline = null;
+        Map<String, HistoryRow> byVersion = new HashMap<>();
+        for (HistoryRow row : rows) {
+            if (isBaseline(row.version())) {
+                baseline = row;
+            } else {
+                byVersion.put(row.version(), row);
+            }
+        }
+
+        MigrationVersion oldBaselineVersion = baseline != null ? MigrationVersion.parse(baselineFileName(baseline.version())) : null;
+        // Новая baseline должна уходить дальше прежней, иначе сжимать нечего
+        if (oldBaselineVersion != null && lastVersion.compareTo(oldBaselineVersion) <= 0) {
+            throw new MigrationManagerException("History is already compacted up to "
+                    + baselineFileName(baseline.version()) + ", nothing to compact at " + upToVersion + ".");
+        }
+
+        // Всё, что входит в новую baseline, должно быть применено без изменений - либо покрыто прежней baseline
+        List<ResolvedMigration> underOldBaseline = new ArrayList<>();
+        for (ResolvedMigration migration : covered) {
+            if (oldBaselineVersion != null && migration.getVersion().compareTo(oldBaselineVersion) <= 0) {
+                underOldBaseline.add(migration);
+                continue;
+            }
+            HistoryRow row = byVersion.get(migration.getFileName());
+            if (row == null || !row.successful()) {
+                throw new MigrationManagerException("Migration " + migration.getFileName()
+                        + " has not been applied successfully and can't be compacted.");
+            }
+            if (!migration.getChecksum().equals(row.checksum())) {
+                throw new MigrationManagerException("The migration checksum " + migration.getFileName()
+                        + " has changed. The migration was modified after application.");
+            }
+        }
+        if (baseline != null && !aggregateChecksum(underOldBaseline).equals(baseline.checksum())) {
+            throw new MigrationManagerException("Migrations covered by " + baseline.version()
+                    + " are missing or were modified, the existing baseline can't be extended.");
+        }
+
+        List<Integer> archivedIds = new ArrayList<>();
+        for (HistoryRow row : rows) {
+            String fileName = isBaseline(row.version()) ? baselineFileName(row.version()) : row.version();
+            if (MigrationVersion.parse(fileName).compareTo(lastVersion) <= 0) {
+                if (!row.successful()) {
+                    throw new MigrationManagerException("Failed migration " + row.version()
+                            + " is in the compacted range, resolve it first.");
+                }
+                archivedIds.add(row.id());
+            }
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            archiveRows(archivedIds);
+            insertBaseline(baselineVersion, aggregateChecksum(covered));
+            if (!lock.isHeld()) {
+                throw new LockException("The lock has been lost or belongs to another process. Compaction cannot be continued.");
+            }
+            connection.commit();
+        } catch (SQLException | LockException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        logger.log(Level.INFO, "Archived " + archivedIds.size() + " history rows behind baseline " + lastFile);
+        return archivedIds.size();
+    }
+
+    private List<HistoryRow> loadHistory() throws SQLException {
+        List<HistoryRow> rows = new ArrayList<>();
+        String query = "SELECT id, version, successful, checksum FROM migration_history";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                rows.add(new HistoryRow(rs.getInt(1), rs.getString(2), rs.getBoolean(3), rs.getString(4)));
+            }
+        }
+        return rows;
+    }
+
+    private void archiveRows(List<Integer> ids) throws SQLException {
+        String archiveSQL = "INSERT INTO migration_history_archive (id, version, applied_at, successful, checksum, archived_at) "
+                + "SELECT id, version, applied_at, successful, checksum, CURRENT_TIMESTAMP FROM migration_history WHERE id = ?";
+        String deleteSQL = "DELETE FROM migration_history WHERE id = ?";
+        try (PreparedStatement archive = connection.prepareStatement(archiveSQL);
+             PreparedStatement delete = connection.prepareStatement(deleteSQL)) {
+            for (int id : ids) {
+                archive.setInt(1, id);
+                archive.addBatch();
+                delete.setInt(1, id);
+                delete.addBatch();
+            }
+            archive.executeBatch();
+            delete.executeBatch();
+        }
+    }
+
+    private void insertBaseline(String version, String checksum) throws SQLException {
+        String insertSQL = "INSERT INTO migration_history (version, successful, checksum) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+            pstmt.setString(1, version);
+            pstmt.setBoolean(2, true);
+            pstmt.setString(3, checksum);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void ensureArchiveTableExists() throws SQLException {
+        String createTableSQL = """
+                    CREATE TABLE IF NOT EXISTS migration_history_archive (
+                        id INTEGER NOT NULL,
+                        version VARCHAR(100) NOT NULL,
+                        applied_at TIMESTAMP NULL,
+                        successful BOOLEAN NOT NULL,
+                        checksum VARCHAR(64),
+                        archived_at TIMESTAMP NULL
+                    );
+                """;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(createTableSQL);
+        }
+    }
+
+    private record HistoryRow(int id, String version, boolean successful, String checksum) {
+    }
+}
@@ -0,0 +1,106 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.SqlStatement;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Склеивает подряд идущие однострочные INSERT в одну таблицу в один INSERT ... VALUES (...), (...)
+public class InsertCoalescer {
+    private static final String IDENTIFIER = "(?:\"(?:[^\"]|\"\")+\"|`[^`]+`|[\\w$]+)";
+    private static final Pattern SINGLE_ROW_INSERT = Pattern.compile(
+            "(?is)^INSERT\\s+INTO\\s+(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")*)"
+                    + "\\s*(\\([^()]*\\))?\\s*VALUES\\s*(?=\\()");
+
+    private final int maxRows;
+    private final StringBuilder values = new StringBuilder();
+    private String groupKey;
+    private String groupPrefix;
+    private SqlStatement first;
+    private int rows;
+
+    public InsertCoalescer(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    // true - выражение забрано в текущую группу; false - его нужно выполнить как есть (предварительно вызвав drain)
+    boolean tryAdd(SqlStatement statement) {
+        String sql = statement.getSql();
+        Matcher matcher = SINGLE_ROW_INSERT.matcher(sql);
+        if (!matcher.find()) {
+            return false;
+        }
+        int tupleEnd = findTupleEnd(sql, matcher.end());
+        if (tupleEnd < 0 || !sql.substring(tupleEnd).isBlank()) {
+            return false;
+        }
+
+        String columns = matcher.group(2) != null ? matcher.group(2).replaceAll("\\s+", "") : "";
+        String key = matcher.group(1).replaceAll("\\s+", "") + columns;
+        if (rows > 0 && (!key.equals(groupKey) || rows >= maxRows)) {
+            return false;
+        }
+
+        if (rows == 0) {
+            groupKey = key;
+            groupPrefix = sql.substring(0, matcher.end());
+            first = statement;
+        } else {
+            values.append(",\n");
+        }
+        values.append(sql, matcher.end(), tupleEnd);
+        rows++;
+        return true;
+    }
+
+    // Отдаёт накопленную группу одним выражением, null если группа пуста
+    SqlStatement drain() {
+        if (rows == 0) {
+            return null;
+        }
+        SqlStatement result = rows == 1
+                ? first
+                : new SqlStatement(groupPrefix + values, first.getIndex(), first.getLine(), rows);
+        values.setLength(0);
+        groupKey = null;
+        groupPrefix = null;
+        first = null;
+        rows = 0;
+        return result;
+    }
+
+    // Конец единственного кортежа значений с учётом кавычек и вложенных скобок; -1 если разобрать надёжно нельзя
+    private static int findTupleEnd(String sql, int start) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' || c == '$') {
+                // Экранирование обратным слешем и $-строки не разбираем - такие INSERT выполняем как есть
+                return -1;
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                        i++;
+                    } else {
+                        quote = 0;
+                    }
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if ((c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-')
+                    || (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*')) {
+                return -1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -1,101 +1,186 @@
 package com.shelzi.jdbcmigrate.controller;
 
 import com.shelzi.jdbcmigrate.exception.LockException;
-import com.shelzi.jdbcmigrate.util.LoggerFactory;
-import org.apache.logging.log4j.Logger;
 
 import java.lang.management.ManagementFactory;
 import java.sql.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Переносимая блокировка-аренда строкой в migration_lock (H2, MySQL и т.д.).
+// Строка не удаляется: при каждом захвате fencing_token растёт, а записи в историю проходят только с текущим токеном.
+// Владение проверяется по локальному сроку аренды, который продлевает heartbeat, - без запроса на каждую миграцию.
+public class LockExecutor implements LockStrategy {
+    static final long DEFAULT_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MIN_POLL_MILLIS = 100;
+    private static final long MAX_POLL_MILLIS = 5_000;
+    private static final String FREE = "";
+    private static final int OWNER_MAX_LENGTH = 100;
+    // pid@host одинаков у всех блокировок процесса, номер различает их внутри JVM
+    private static final String PROCESS_NAME = ManagementFactory.getRuntimeMXBean().getName();
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
 
-public class LockExecutor {
     private final Connection connection;
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final long expiryMillis;
+    private final String owner;
+    private volatile long fencingToken;
+    private volatile long leaseDeadlineNanos;
+    private volatile boolean lost;
 
     public LockExecutor(Connection connection) {
+        this(connection, DEFAULT_EXPIRY_MILLIS);
+    }
+
+    public LockExecutor(Connection connection, long expiryMillis) {
         this.connection = connection;
+        this.expiryMillis = expiryMillis;
+        String suffix = "/" + INSTANCES.incrementAndGet();
+        this.owner = PROCESS_NAME.substring(0, Math.min(PROCESS_NAME.length(), OWNER_MAX_LENGTH - suffix.length())) + suffix;
     }
 
-    boolean acquireLock() throws SQLException, LockException {
+    @Override
+    public synchronized boolean acquire(long waitMillis) throws SQLException, LockException {
         ensureLockTableExists();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long pollMillis = MIN_POLL_MILLIS;
+        while (!acquireLock()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            // Опрос с растущей паузой и разбросом, чтобы ожидающие процессы не ломились одновременно
+            long sleep = Math.min(remaining, pollMillis + ThreadLocalRandom.current().nextLong(pollMillis / 2 + 1));
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LockException("Interrupted while waiting for the migration lock.", e);
+            }
+            pollMillis = Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isHeld() {
+        return fencingToken > 0 && !lost && System.nanoTime() - leaseDeadlineNanos < 0;
+    }
+
+    @Override
+    public synchronized void release() throws SQLException {
+        if (fencingToken > 0) {
+            releaseLock();
+            fencingToken = 0;
+        }
+    }
+
+    @Override
+    public long getRefreshPeriodMillis() {
+        // Продлеваем заметно раньше истечения
+        return Math.max(1, expiryMillis / 3);
+    }
+
+    @Override
+    public synchronized void refresh() throws SQLException {
+        if (fencingToken > 0 && !lost) {
+            refreshLock();
+        }
+    }
 
-        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+    // Растёт при каждом захвате; записи в историю с устаревшим токеном отклоняются
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    @Override
+    public String getFencingCondition() {
+        long token = fencingToken;
+        return token > 0 ? "EXISTS (SELECT 1 FROM migration_lock WHERE lock_id = 1 AND fencing_token = " + token + ")" : null;
+    }
 
-        String insertSQL = "INSERT INTO migration_lock (lock_id, locked_at, pid) VALUES (1, ?, ?)";
+    boolean acquireLock() throws SQLException, LockException {
+        long now = System.currentTimeMillis();
+        long leaseStart = System.nanoTime();
+
+        // Свободную или просроченную строку забираем одним условным UPDATE с новым токеном
+        String takeOverSQL = "UPDATE migration_lock SET pid = ?, locked_at = ?, fencing_token = fencing_token + 1 "
+                + "WHERE lock_id = 1 AND (pid = ? OR locked_at < ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(takeOverSQL)) {
+            pstmt.setString(1, owner);
+            pstmt.setTimestamp(2, new Timestamp(now)); // todo уточнить вопрос с таймзонами
+            pstmt.setString(3, FREE);
+            pstmt.setTimestamp(4, new Timestamp(now - expiryMillis));
+            if (pstmt.executeUpdate() > 0) {
+                return onAcquired(readOwnToken(), leaseStart);
+            }
+        }
 
+        String insertSQL = "INSERT INTO migration_lock (lock_id, locked_at, pid, fencing_token) VALUES (1, ?, ?, 1)";
         try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
-            pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis())); // todo уточнить вопрос с таймзонами
-            pstmt.setString(2, pid);
+            pstmt.setTimestamp(1, new Timestamp(now));
+            pstmt.setString(2, owner);
             pstmt.executeUpdate();
-            return true; // Блокировка успешно установлена
+            return onAcquired(1, leaseStart); // Блокировка успешно установлена
         } catch (SQLException e) {
             // Проверяем, что блокировка уже существует
-            if (e.getSQLState().startsWith("23")) { // Код SQLState для нарушения уникального ограничения, я проверил, это для всех так
-                if (isLockExpired()) {
-                    releaseLock();
-                    return acquireLock();
-                } else {
-                    return false; // Блокировка занята другим процессом
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) { // Код SQLState для нарушения уникального ограничения, я проверил, это для всех так
+                return false; // Блокировка занята другим процессом
+            }
+            throw new LockException("Error with lock table while trying to update it", e);
+        }
+    }
+
+    private boolean onAcquired(long token, long leaseStartNanos) {
+        fencingToken = token;
+        lost = false;
+        leaseDeadlineNanos = leaseStartNanos + leaseNanos();
+        return true;
+    }
+
+    private long readOwnToken() throws SQLException, LockException {
+        String selectSQL = "SELECT fencing_token FROM migration_lock WHERE lock_id = 1 AND pid = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            pstmt.setString(1, owner);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new LockException("The lock was taken over right after it had been acquired.");
                 }
-            } else {
-                throw new LockException("Error with lock table while trying to update it", e);
+                return rs.getLong(1);
             }
         }
     }
 
     void refreshLock() throws SQLException {
-        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
-
-        String updateSQL = "UPDATE migration_lock SET locked_at = ? WHERE lock_id = 1 AND pid = ?";
+        // Срок аренды отсчитываем от момента до запроса - так локальная оценка не переживёт серверную
+        long leaseStart = System.nanoTime();
+        String updateSQL = "UPDATE migration_lock SET locked_at = ? WHERE lock_id = 1 AND pid = ? AND fencing_token = ?";
         try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
             pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-            pstmt.setString(2, pid);
+            pstmt.setString(2, owner);
+            pstmt.setLong(3, fencingToken);
             int updatedRows = pstmt.executeUpdate();
             if (updatedRows == 0) {
+                lost = true;
                 throw new SQLException("Failed to update the lock. It belongs to another process or has been removed.");
             }
         }
-    }
-
-    boolean checkLockOwnership() throws SQLException {
-        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
-
-        String selectSQL = "SELECT pid FROM migration_lock WHERE lock_id = 1";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                String lockPid = rs.getString("pid");
-                return pid.equals(lockPid);
-            } else {
-                return false; // Блокировка не существует
-            }
-        }
+        leaseDeadlineNanos = leaseStart + leaseNanos();
     }
 
     void releaseLock() throws SQLException {
-        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
-
-        String deleteSQL = "DELETE FROM migration_lock WHERE lock_id = 1 AND pid = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSQL)) {
-            pstmt.setString(1, pid);
+        String releaseSQL = "UPDATE migration_lock SET pid = ? WHERE lock_id = 1 AND pid = ? AND fencing_token = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(releaseSQL)) {
+            pstmt.setString(1, FREE);
+            pstmt.setString(2, owner);
+            pstmt.setLong(3, fencingToken);
             pstmt.executeUpdate();
         }
     }
 
-    boolean isLockExpired() throws SQLException {
-        String selectSQL = "SELECT locked_at FROM migration_lock WHERE lock_id = 1";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                Timestamp lockedAt = rs.getTimestamp("locked_at");
-                long lockDuration = System.currentTimeMillis() - lockedAt.getTime();
-                return lockDuration > 5 * 60 * 1000; // Тайм-аут блокировки 5 минут
-            } else {
-                return true; // Блокировка не существует
-            }
-        }
+    // Запас на расхождение часов: соседний процесс считает блокировку просроченной по своим часам
+    private long leaseNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(expiryMillis - expiryMillis / 10);
     }
 
     void ensureLockTableExists() throws SQLException {
@@ -103,26 +188,24 @@ public class LockExecutor {
                     CREATE TABLE IF NOT EXISTS migration_lock (
                           lock_id INT PRIMARY KEY,
                           locked_at TIMESTAMP NOT NULL,
-                          pid VARCHAR(100) NOT NULL
+                          pid VARCHAR(100) NOT NULL,
+                          fencing_token BIGINT DEFAULT 0 NOT NULL
                       );
                 """;
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
         }
+        ensureFencingTokenColumn();
     }
 
-    ScheduledExecutorService getLockRefresherService(int initialDelay, int c) {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        Runnable refreshLockTask = () -> {
-            try {
-                refreshLock();
-            } catch (SQLException e) {
-                logger.error("Error when updating the lock", e);
+    // Таблица, созданная прежней версией, ещё без fencing_token
+    private void ensureFencingTokenColumn() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeQuery("SELECT fencing_token FROM migration_lock WHERE 1 = 0").close();
+        } catch (SQLException e) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE migration_lock ADD COLUMN fencing_token BIGINT DEFAULT 0 NOT NULL");
             }
-        };
-
-        // Запускаем задачу обновления блокировки каждые 2 минут
-        scheduler.scheduleAtFixedRate(refreshLockTask, initialDelay, initialDelay, TimeUnit.MINUTES);
-        return scheduler;
+        }
     }
 }
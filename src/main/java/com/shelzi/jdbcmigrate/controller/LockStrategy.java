@@ -0,0 +1,54 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.LockType;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.exception.LockException;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Блокировка, которая не даёт двум процессам применять миграции к одной схеме одновременно
+public interface LockStrategy {
+
+    // Ждёт блокировку не дольше waitMillis (0 - одна попытка); false - занята другим процессом
+    boolean acquire(long waitMillis) throws SQLException, LockException;
+
+    // Ответ без обращения к базе - вызывается перед каждой миграцией
+    boolean isHeld();
+
+    void release() throws SQLException;
+
+    // Продление блокировки, пока идут миграции; 0 - продлевать не нужно
+    default long getRefreshPeriodMillis() {
+        return 0;
+    }
+
+    default void refresh() throws SQLException {
+    }
+
+    // Условие для WHERE записи в историю: истинно, только пока блокировка наша, - процесс, потерявший её,
+    // не сможет отметить миграцию применённой. null - без проверки
+    default String getFencingCondition() {
+        return null;
+    }
+
+    static LockStrategy create(Connection lockConnection, MigrationConfig config, SqlDialect dialect) {
+        Logger logger = LoggerFactory.getLogger(LockStrategy.class);
+        LockType type = config.getLockType();
+        if (type == LockType.AUTO) {
+            type = dialect == SqlDialect.POSTGRESQL ? LockType.ADVISORY : LockType.TABLE;
+        }
+        if (type == LockType.ADVISORY && dialect != SqlDialect.POSTGRESQL) {
+            logger.log(Level.WARN, "Advisory locks are not supported by " + dialect + ", using the lock table.");
+            type = LockType.TABLE;
+        }
+        logger.log(Level.DEBUG, "Lock strategy: " + type);
+        return type == LockType.ADVISORY
+                ? new AdvisoryLockExecutor(lockConnection)
+                : new LockExecutor(lockConnection, config.getLockExpiryMillis());
+    }
+}
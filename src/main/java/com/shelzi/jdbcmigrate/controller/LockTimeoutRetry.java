@@ -0,0 +1,101 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.SessionTimeouts;
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Повторы одной миграции после срабатывания lock_timeout. Задержка растёт экспоненциально и случайна
+// в пределах [delay/2, delay], чтобы несколько ждущих процессов не приходили за блокировкой одновременно.
+// Если повтор был, каждая попытка и итог пишутся в migration_attempt - по ним подбираются таймауты.
+class LockTimeoutRetry {
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final SqlDialect dialect;
+    private final String version;
+    private final int retries;
+    private final long delayMillis;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private int attempt = 1;
+    private long attemptStart = System.currentTimeMillis();
+    private boolean retrying;
+
+    LockTimeoutRetry(SqlDialect dialect, String version, int retries, long delayMillis) {
+        this.dialect = dialect;
+        this.version = version;
+        this.retries = Math.max(0, retries);
+        this.delayMillis = Math.max(0, delayMillis);
+    }
+
+    // true - ждём и повторяем. Соединение должно быть пригодно для записи: транзакцию уже откатили
+    boolean shouldRetry(Connection connection, SQLException e) throws SQLException {
+        boolean lockTimeout = SessionTimeouts.isLockTimeout(e, dialect);
+        if (!lockTimeout || attempt > retries) {
+            if (attempt > 1 || lockTimeout) {
+                record(connection, "FAILED", e.getMessage(), true);
+            }
+            return false;
+        }
+        record(connection, "LOCK_TIMEOUT", e.getMessage(), true);
+        long delay = delayMillis << Math.min(attempt - 1, 10);
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        logger.log(Level.WARN, version + ": lock timeout on attempt " + attempt + " of " + (retries + 1)
+                + ", retrying in " + delay + " ms");
+        MigrationMetrics.getInstance().lockTimeoutRetried();
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        attempt++;
+        attemptStart = System.currentTimeMillis();
+        retrying = true;
+        return true;
+    }
+
+    // Успешная попытка пишется только после повторов; строка уходит вместе с транзакцией миграции
+    void succeeded(Connection connection) throws SQLException {
+        if (retrying) {
+            retrying = false;
+            record(connection, "SUCCESS", null, false);
+        }
+    }
+
+    private void record(Connection connection, String outcome, String error, boolean commit) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS migration_attempt (
+                        version VARCHAR(100) NOT NULL,
+                        attempt INT NOT NULL,
+                        started_at TIMESTAMP NOT NULL,
+                        duration_millis BIGINT NOT NULL,
+                        outcome VARCHAR(20) NOT NULL,
+                        error VARCHAR(1000)
+                    )""");
+        }
+        String insertSQL = "INSERT INTO migration_attempt (version, attempt, started_at, duration_millis, outcome, error) "
+                + "VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+            pstmt.setString(1, version);
+            pstmt.setInt(2, attempt);
+            pstmt.setTimestamp(3, new Timestamp(attemptStart));
+            pstmt.setLong(4, System.currentTimeMillis() - attemptStart);
+            pstmt.setString(5, outcome);
+            pstmt.setString(6, error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH));
+            pstmt.executeUpdate();
+        }
+        if (commit && !connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.MigrationEvent;
+
+import java.util.concurrent.SubmissionPublisher;
+
+// События прогона как Flow.Publisher: передаётся в migrateAsync слушателем, подписчики получают события
+// в своих потоках. Подписчик, отставший на целый буфер, притормаживает прогон (submit ждёт места).
+// После итогового события публикатор закрывается, подписчики получают onComplete
+public class MigrationEventPublisher extends SubmissionPublisher<MigrationEvent> implements MigrationListener {
+
+    @Override
+    public void onEvent(MigrationEvent event) {
+        submit(event);
+        if (event.isTerminal()) {
+            close();
+        }
+    }
+}
@@ -1,83 +1,595 @@
 package com.shelzi.jdbcmigrate.controller;
 
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.database.SessionTimeouts;
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.MigrationEvent;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.entity.TransactionMode;
 import com.shelzi.jdbcmigrate.exception.LockException;
+import com.shelzi.jdbcmigrate.exception.MigrationCancelledException;
 import com.shelzi.jdbcmigrate.exception.MigrationException;
 import com.shelzi.jdbcmigrate.exception.MigrationExecutorException;
 import com.shelzi.jdbcmigrate.io.MigrationFileReader;
-import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import com.shelzi.jdbcmigrate.io.SqlStatementSplitter;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.metrics.Phase;
+import com.shelzi.jdbcmigrate.util.HistorySnapshot;
 import com.shelzi.jdbcmigrate.util.LoggerFactory;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 
 public class MigrationExecutor {
     private final Connection connection;
-    private final String migrationDirectory;
+    private final MigrationConfig config;
+    private final ConnectionCreator connectionCreator;
+    private final List<ResolvedMigration> resolvedMigrations;
+    private final AtomicReference<HistorySnapshot> historyCache;
+    private final MigrationListener listener;
+    private final BooleanSupplier cancellationRequested;
+    private SqlDialect dialect;
+    private final MigrationMetrics metrics = MigrationMetrics.getInstance();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private static final int START_DELAY_IN_MINUTES = 2;
-    private static final int UPDATE_PERIOD_IN_MINUTES = 2;
-
     public MigrationExecutor(Connection connection, String migrationDirectory) {
+        this(connection, new MigrationConfig(migrationDirectory));
+    }
+
+    public MigrationExecutor(Connection connection, MigrationConfig config) {
+        this(connection, config, null);
+    }
+
+    // connectionCreator нужен для параллельного применения: каждый поток работает со своим соединением
+    public MigrationExecutor(Connection connection, MigrationConfig config, ConnectionCreator connectionCreator) {
+        this(connection, config, connectionCreator, null);
+    }
+
+    public MigrationExecutor(Connection connection, MigrationConfig config, ConnectionCreator connectionCreator,
+                             List<ResolvedMigration> resolvedMigrations) {
+        this(connection, config, connectionCreator, resolvedMigrations, null);
+    }
+
+    public MigrationExecutor(Connection connection, MigrationConfig config, ConnectionCreator connectionCreator,
+                             List<ResolvedMigration> resolvedMigrations, AtomicReference<HistorySnapshot> historyCache) {
+        this(connection, config, connectionCreator, resolvedMigrations, historyCache, null, null);
+    }
+
+    // listener получает события хода миграции; cancellationRequested проверяется перед каждой миграцией,
+    // начатая миграция доводится до конца
+    public MigrationExecutor(Connection connection, MigrationConfig config, ConnectionCreator connectionCreator,
+                             List<ResolvedMigration> resolvedMigrations, AtomicReference<HistorySnapshot> historyCache,
+                             MigrationListener listener, BooleanSupplier cancellationRequested) {
         this.connection = connection;
-        this.migrationDirectory = migrationDirectory;
+        this.config = config;
+        this.connectionCreator = connectionCreator;
+        this.resolvedMigrations = resolvedMigrations;
+        this.historyCache = historyCache;
+        this.listener = listener;
+        this.cancellationRequested = cancellationRequested;
     }
 
     public void applyMigrations() throws SQLException, IOException, MigrationException {
-        MigrationManager migrationManager = new MigrationManager(connection, migrationDirectory);
+        MigrationManager migrationManager = new MigrationManager(connection, config, resolvedMigrations, historyCache);
 
         try {
-            LockExecutor lockExecutor = new LockExecutor(connection);
-            lockExecutor.ensureLockTableExists();
+            dialect = SqlDialect.fromConnection(connection);
+            Connection lockConnection = openLockConnection();
+            try {
+                LockStrategy lock = LockStrategy.create(lockConnection, config, dialect);
+                boolean follower = false;
+                long lockWaitStart = System.nanoTime();
+                if (!lock.acquire(config.getLockWaitMillis())) {
+                    if (!config.isFollowLeader()) {
+                        throw new LockException("Another migration has already been launched.");
+                    }
+                    // Ведомый: ждём, пока ведущий закончит, вместо падения и перезапуска
+                    logger.log(Level.INFO, "Another migration is running, waiting up to "
+                            + config.getFollowTimeoutMillis() + " ms for it to finish.");
+                    if (!lock.acquire(config.getFollowTimeoutMillis())) {
+                        throw new LockException("Another migration is still running after "
+                                + config.getFollowTimeoutMillis() + " ms.");
+                    }
+                    follower = true;
+                }
+                metrics.recordPhase(Phase.LOCK_WAIT, lockWaitStart);
+                publish(MigrationEvent.Type.LOCKED, null, 0, elapsedMillis(lockWaitStart), null);
 
-            if (lockExecutor.acquireLock()) { // todo нет цикла опроса и таймаута для другого пользователя.
-                // Проверяем, что блокировка принадлежит нам
-                if (!lockExecutor.checkLockOwnership()) {
-                    throw new LockException("The lock has been lost or belongs to another process. Migration cannot be continued.");
-                    // Didn't have enough time to make timeout for that one.
+                // Сервис обновления блокировки
+                ScheduledExecutorService lockRefresherService = startLockRefresher(lock, lockConnection);
+                try {
+                    // Проверяем, что блокировка принадлежит нам
+                    if (!lock.isHeld()) {
+                        throw new LockException("The lock has been lost or belongs to another process. Migration cannot be continued.");
+                    }
+                    if (follower && !migrationManager.hasUnappliedFiles()) {
+                        logger.log(Level.INFO, "All migrations have already been applied by another process.");
+                        return;
+                    }
+                    List<ResolvedMigration> pendingMigrationsList = migrationManager.getMigrations();
+                    publish(MigrationEvent.Type.DISCOVERED, null, pendingMigrationsList.size(), 0, null);
+                    applyPendingMigrations(pendingMigrationsList, lock);
+                } finally {
+                    // Останавливаем планировщик и освобождаем блокировку
+                    if (lockRefresherService != null) {
+                        lockRefresherService.shutdownNow();
+                    }
+                    lock.release();
+                }
+            } finally {
+                if (lockConnection != connection) {
+                    lockConnection.close();
                 }
-            } else {
-                throw new LockException("Another migration has already been launched.");
             }
+        } catch (SQLException e) {
+            throw new MigrationException("Error when applying migrations: ", e);
+        }
+    }
 
-            // Сервис обновления блокировки
-            ScheduledExecutorService lockRefresherService =
-                    lockExecutor.getLockRefresherService(START_DELAY_IN_MINUTES, UPDATE_PERIOD_IN_MINUTES);
+    // Блокировка живёт на отдельном соединении: продление не попадает в транзакцию миграций
+    // и не выполняется одновременно с ними на одном соединении
+    private Connection openLockConnection() throws SQLException {
+        if (connectionCreator == null) {
+            return connection;
+        }
+        // Если пул не выдал соединение, прогон падает: продление на соединении миграций ушло бы в их транзакцию
+        Connection lockConnection;
+        try {
+            lockConnection = connectionCreator.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Database driver not found: " + e.getMessage(), e);
+        }
+        try {
+            lockConnection.setSchema(connection.getSchema());
+        } catch (SQLException e) {
+            lockConnection.close();
+            throw e;
+        }
+        return lockConnection;
+    }
 
-            List<Path> pendingMigrationsList = migrationManager.getMigrations();
+    private ScheduledExecutorService startLockRefresher(LockStrategy lock, Connection lockConnection) {
+        long period = lock.getRefreshPeriodMillis();
+        if (period <= 0) {
+            return null;
+        }
+        // Без ConnectionCreator блокировка на соединении миграций: продление из другого потока попало бы
+        // в их транзакцию и пропало при откате, а срок аренды локально уже был бы продлён. Не продлеваем -
+        // прогон дольше migration.lock.expiry.millis остановится с потерей блокировки
+        if (lockConnection == connection) {
+            logger.log(Level.WARN, "The lock shares the migration connection and won't be refreshed; "
+                    + "pass a connection creator for runs longer than the lock expiry.");
+            return null;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "migration-lock-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
             try {
-                for (Path migrationPath : pendingMigrationsList) {
-                    applyMigrationWithHandling(migrationPath, lockExecutor);
+                lock.refresh();
+            } catch (SQLException e) {
+                metrics.lockRefreshFailed();
+                logger.error("Error when updating the lock", e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    private void applyPendingMigrations(List<ResolvedMigration> pendingMigrations, LockStrategy lock)
+            throws SQLException, MigrationExecutorException {
+        TransactionMode mode = resolveTransactionMode();
+        if (config.getParallelism() > 1 && pendingMigrations.size() > 1) {
+            if (connectionCreator != null) {
+                applyInParallel(pendingMigrations, lock, mode);
+                return;
+            }
+            logger.log(Level.WARN, "Parallel migration requires a connection creator, applying sequentially.");
+        }
+
+        if (mode == TransactionMode.AUTOCOMMIT) {
+            for (ResolvedMigration migration : pendingMigrations) {
+                checkCancelled();
+                applyMigrationWithHandling(connection, migration, lock);
+            }
+            return;
+        }
+
+        int commitEvery = switch (mode) {
+            case GROUP -> Math.max(1, config.getTransactionGroupSize());
+            case PER_RUN -> Integer.MAX_VALUE;
+            default -> 1;
+        };
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            List<AppliedMigration> uncommitted = new ArrayList<>();
+            for (ResolvedMigration migration : pendingMigrations) {
+                if (isCancellationRequested()) {
+                    // Уже применённое в группе не откатываем
+                    commit(connection, uncommitted);
+                    checkCancelled();
+                }
+                applyMigrationInTransaction(connection, migration, lock, uncommitted);
+                if (uncommitted.size() >= commitEvery) {
+                    commit(connection, uncommitted);
+                }
+            }
+            commit(connection, uncommitted);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Независимые ветки графа применяются одновременно, каждая на своём соединении
+    private void applyInParallel(List<ResolvedMigration> pendingMigrations, LockStrategy lock, TransactionMode mode)
+            throws SQLException, MigrationExecutorException {
+        List<Map<String, String>> headers = new ArrayList<>(pendingMigrations.size());
+        boolean hasDepends = false;
+        for (ResolvedMigration migration : pendingMigrations) {
+            try {
+                Map<String, String> header = MigrationFileReader.readHeader(migration);
+                headers.add(header);
+                hasDepends |= header.containsKey(MigrationGraph.DEPENDS_DIRECTIVE);
+            } catch (IOException e) {
+                throw new MigrationExecutorException("Error reading header of " + migration.getFileName() + ": " + e);
+            }
+        }
+        // История нужна только для проверки "-- depends:" на уже применённые миграции
+        Set<String> appliedVersions = hasDepends
+                ? new MigrationHelper(connection).getSuccessfulVersions()
+                : Collections.emptySet();
+        MigrationGraph graph = MigrationGraph.build(pendingMigrations, headers, appliedVersions);
+
+        // Транзакция на несколько соединений не растягивается - в параллельном режиме максимум per-migration
+        boolean transactional = mode != TransactionMode.AUTOCOMMIT;
+        int threads = Math.min(config.getParallelism(), graph.size());
+        BlockingQueue<Connection> workerConnections = new ArrayBlockingQueue<>(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(pool);
+        try {
+            for (int i = 0; i < threads; i++) {
+                workerConnections.add(openWorkerConnection(transactional));
+            }
+
+            int[] remainingDependencies = graph.getDependencyCounts();
+            int running = 0;
+            for (int i = 0; i < graph.size(); i++) {
+                if (remainingDependencies[i] == 0) {
+                    submitMigration(completionService, workerConnections, graph, i, lock, transactional);
+                    running++;
+                }
+            }
+
+            Throwable failure = null;
+            while (running > 0) {
+                Future<Integer> finished = completionService.take();
+                running--;
+                try {
+                    int index = finished.get();
+                    if (failure == null && isCancellationRequested()) {
+                        failure = new MigrationCancelledException("Migration has been cancelled.");
+                    }
+                    if (failure != null) {
+                        continue;
+                    }
+                    for (int dependent : graph.getDependents(index)) {
+                        if (--remainingDependencies[dependent] == 0) {
+                            submitMigration(completionService, workerConnections, graph, dependent, lock, transactional);
+                            running++;
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    // Новые миграции больше не запускаем, но дожидаемся уже начатых
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+
+            if (failure instanceof MigrationExecutorException) {
+                throw (MigrationExecutorException) failure;
+            } else if (failure instanceof SQLException) {
+                throw (SQLException) failure;
+            } else if (failure != null) {
+                throw new MigrationExecutorException("Error trying to apply migrations: " + failure, failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationExecutorException("Interrupted while applying migrations in parallel.", e);
+        } finally {
+            pool.shutdownNow();
+            for (Connection workerConnection : workerConnections) {
+                closeQuietly(workerConnection);
+            }
+        }
+    }
+
+    private void submitMigration(CompletionService<Integer> completionService, BlockingQueue<Connection> workerConnections,
+                                 MigrationGraph graph, int index, LockStrategy lock, boolean transactional) {
+        completionService.submit(() -> {
+            Connection workerConnection = workerConnections.take();
+            try {
+                ResolvedMigration migration = graph.get(index);
+                if (transactional) {
+                    List<AppliedMigration> uncommitted = new ArrayList<>(1);
+                    applyMigrationInTransaction(workerConnection, migration, lock, uncommitted);
+                    commit(workerConnection, uncommitted);
+                } else {
+                    applyMigrationWithHandling(workerConnection, migration, lock);
                 }
             } finally {
-                // Останавливаем планировщик и освобождаем блокировку
-                lockRefresherService.shutdown();
-                lockExecutor.releaseLock();
+                workerConnections.put(workerConnection);
             }
+            return index;
+        });
+    }
+
+    private Connection openWorkerConnection(boolean transactional) throws SQLException, MigrationExecutorException {
+        Connection workerConnection;
+        try {
+            workerConnection = connectionCreator.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new MigrationExecutorException("Database driver not found: " + e.getMessage(), e);
+        }
+        // Рабочие соединения должны смотреть в ту же схему, что и основное
+        String schema = connection.getSchema();
+        if (schema != null) {
+            workerConnection.setSchema(schema);
+        }
+        workerConnection.setAutoCommit(!transactional);
+        return workerConnection;
+    }
+
+    private void closeQuietly(Connection workerConnection) {
+        try {
+            workerConnection.close();
         } catch (SQLException e) {
-            throw new MigrationException("Error when applying migrations: ", e);
+            logger.log(Level.WARN, "Failed to close worker connection: " + e.getMessage());
+        }
+    }
+
+    private TransactionMode resolveTransactionMode() {
+        TransactionMode mode = config.getTransactionMode();
+        if ((mode == TransactionMode.PER_RUN || mode == TransactionMode.GROUP) && !dialect.supportsTransactionalDdl()) {
+            // Без транзакционного DDL откат группы оставит часть изменений в базе - применяем по одной
+            logger.log(Level.WARN, "Transaction mode " + mode + " requires transactional DDL, which " + dialect
+                    + " doesn't support. Falling back to " + TransactionMode.PER_MIGRATION);
+            return TransactionMode.PER_MIGRATION;
         }
+        return mode;
     }
 
-    private void applyMigration(String sql) throws SQLException {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
+    // Применёнными миграции считаются только после commit: до него их ещё может откатить ошибка соседки по группе
+    private void commit(Connection connection, List<AppliedMigration> uncommitted) throws SQLException {
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            for (AppliedMigration applied : uncommitted) {
+                migrationFailed(applied.fileName(), applied.nanos(), "Commit failed: " + e.getMessage());
+            }
+            uncommitted.clear();
+            throw e;
         }
+        for (AppliedMigration applied : uncommitted) {
+            migrationApplied(applied);
+        }
+        uncommitted.clear();
+    }
+
+    private void migrationApplied(AppliedMigration applied) {
+        logger.log(Level.DEBUG, "Migration applied: " + applied.fileName());
+        metrics.recordMigration(applied.fileName(), applied.nanos(), true);
+        publish(MigrationEvent.Type.MIGRATION_FINISHED, applied.fileName(), 0,
+                TimeUnit.NANOSECONDS.toMillis(applied.nanos()), null);
+    }
+
+    private void migrationFailed(String fileName, long nanos, String errorMessage) {
+        metrics.recordMigration(fileName, nanos, false);
+        publish(MigrationEvent.Type.MIGRATION_FAILED, fileName, 0, TimeUnit.NANOSECONDS.toMillis(nanos), errorMessage);
     }
 
-    private int recordMigration(String version, boolean successful, String checksum) throws SQLException {
-        String insertSQL = "INSERT INTO migration_history (version, successful, checksum) VALUES (?, ?, ?)";
+    // Миграция и её строка в истории фиксируются одним commit, при ошибке не остаётся ни того, ни другого
+    private void applyMigrationInTransaction(Connection connection, ResolvedMigration migration, LockStrategy lock,
+                                             List<AppliedMigration> uncommitted) throws SQLException, MigrationExecutorException {
+        String fileName = migration.getFileName();
+        Map<String, String> header;
+        try {
+            header = MigrationFileReader.readHeader(migration);
+        } catch (IOException e) {
+            throw new MigrationExecutorException("Error reading header of " + fileName + ": " + e);
+        }
+        if (isNonTransactional(header)) {
+            // Фиксируем то, что накопилось до неё, и применяем её саму в autocommit, как в режиме AUTOCOMMIT
+            commit(connection, uncommitted);
+            connection.setAutoCommit(true);
+            try {
+                applyMigrationWithHandling(connection, migration, lock);
+            } finally {
+                connection.setAutoCommit(false);
+            }
+            return;
+        }
+        LockTimeoutRetry lockRetry = newLockTimeoutRetry(fileName);
+        // Повторы после lock timeout - попытки одной миграции: STARTED один раз, FAILED - только когда повторов больше не будет
+        publish(MigrationEvent.Type.MIGRATION_STARTED, fileName, 0, 0, null);
+        while (true) {
+            SessionTimeouts timeouts = null;
+            long start = System.nanoTime();
+            long nanos = -1;
+            try {
+                if (!lock.isHeld()) {
+                    throw new LockException("The lock has been lost or belongs to another process. Migration cannot be continued.");
+                }
+                timeouts = applyTimeouts(connection, header);
+                nanos = applyMigration(connection, migration, header);
+                lockRetry.succeeded(connection);
+                restoreTimeouts(timeouts);
+                // Строка прошлой неудачи в autocommit уходит вместе с этой транзакцией, иначе упрёмся в UNIQUE
+                deleteFailedMigration(connection, fileName);
+                recordMigration(connection, fileName, true, migration.getChecksum(), lock);
+                uncommitted.add(new AppliedMigration(fileName, nanos));
+                return;
+            } catch (SQLException | LockException | MigrationExecutorException | IOException e) {
+                connection.rollback();
+                restoreTimeouts(timeouts);
+                // Повторяем, только если откат не задел других миграций группы
+                if (e instanceof SQLException && uncommitted.isEmpty() && lockRetry.shouldRetry(connection, (SQLException) e)) {
+                    continue;
+                }
+                migrationFailed(fileName, nanos >= 0 ? nanos : System.nanoTime() - start, e.getMessage());
+                List<String> rolledBack = new ArrayList<>();
+                for (AppliedMigration applied : uncommitted) {
+                    migrationFailed(applied.fileName(), applied.nanos(), "Rolled back after " + fileName + " failed.");
+                    rolledBack.add(applied.fileName());
+                }
+                rolledBack.add(fileName);
+                logger.log(Level.ERROR, "Migration failed, rolled back: " + String.join(", ", rolledBack));
+                uncommitted.clear();
+                throw new MigrationExecutorException("Error trying to apply migrations: " + e);
+            }
+        }
+    }
+
+    private LockTimeoutRetry newLockTimeoutRetry(String fileName) {
+        return new LockTimeoutRetry(dialect, fileName, config.getLockTimeoutRetries(), config.getLockTimeoutRetryDelayMillis());
+    }
+
+    // Таймауты из настроек, "-- lock.timeout: 5000" и "-- statement.timeout: 60000" в заголовке их переопределяют
+    private SessionTimeouts applyTimeouts(Connection connection, Map<String, String> header)
+            throws SQLException, MigrationExecutorException {
+        long lockTimeout = headerMillis(header, "lock.timeout", config.getLockTimeoutMillis());
+        long statementTimeout = headerMillis(header, "statement.timeout", config.getStatementTimeoutMillis());
+        if ((lockTimeout > 0 || statementTimeout > 0) && !SessionTimeouts.isSupported(dialect)) {
+            logger.log(Level.WARN, "Lock and statement timeouts are not supported for " + dialect + " and are ignored.");
+        }
+        return SessionTimeouts.apply(connection, dialect, lockTimeout, statementTimeout);
+    }
+
+    // Ошибку возврата только логируем, чтобы не заслонить ошибку самой миграции
+    private void restoreTimeouts(SessionTimeouts timeouts) {
+        if (timeouts == null) {
+            return;
+        }
+        try {
+            timeouts.restore();
+        } catch (SQLException e) {
+            logger.log(Level.WARN, "Failed to restore session timeouts: " + e.getMessage());
+        }
+    }
+
+    private static long headerMillis(Map<String, String> header, String name, long defaultValue)
+            throws MigrationExecutorException {
+        String value = header.get(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            throw new MigrationExecutorException("Invalid " + name + " directive: " + value);
+        }
+    }
+
+    // "-- transactional: false" (CREATE INDEX CONCURRENTLY, VACUUM и т.п.) и backfill, который коммитит порциями
+    private static boolean isNonTransactional(Map<String, String> header) {
+        return "false".equalsIgnoreCase(header.get("transactional")) || BackfillRunner.isBackfill(header);
+    }
+
+    // Возвращает время выполнения в наносекундах. События и метрики публикует вызывающий: FINISHED - когда
+    // миграция записана в историю и зафиксирована, FAILED - когда повторов после lock timeout больше не будет
+    private long applyMigration(Connection connection, ResolvedMigration migration, Map<String, String> header)
+            throws SQLException, IOException, MigrationExecutorException {
+        long start = System.nanoTime();
+        if (MigrationFileReader.isDataMigration(migration)) {
+            new CsvDataLoader(connection, migration, header, dialect, config.getBatchSize()).load();
+        } else if (BackfillRunner.isBackfill(header)) {
+            new BackfillRunner(connection, connectionCreator, migration, header, dialect).run();
+        } else {
+            // Выполняем по одному выражению, не собирая весь файл в строку
+            // Вне транзакции индексы CONCURRENTLY можно строить параллельно на отдельных соединениях
+            // и повторять отдельное выражение после lock timeout - в транзакции повторяется вся миграция
+            boolean autoCommit = connection.getAutoCommit();
+            ConcurrentIndexBuilder indexBuilder = autoCommit
+                    ? new ConcurrentIndexBuilder(connection, connectionCreator, dialect, config.getIndexBuildParallelism())
+                    : null;
+            LockTimeoutRetry lockRetry = autoCommit ? newLockTimeoutRetry(migration.getFileName()) : null;
+            try (SqlStatementSplitter splitter = MigrationFileReader.openStatements(migration, dialect)) {
+                new StatementRunner(connection, config.getBatchSize(), config.getInsertCoalesceRows(), indexBuilder,
+                        lockRetry).execute(splitter);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private boolean isCancellationRequested() {
+        return cancellationRequested != null && cancellationRequested.getAsBoolean();
+    }
+
+    private void checkCancelled() throws MigrationCancelledException {
+        if (isCancellationRequested()) {
+            throw new MigrationCancelledException("Migration has been cancelled.");
+        }
+    }
+
+    // Ошибка слушателя не должна прерывать миграцию
+    private void publish(MigrationEvent.Type type, String migration, int count, long durationMillis, String errorMessage) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onEvent(new MigrationEvent(type, migration, count, durationMillis, errorMessage));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARN, "Migration listener failed on " + type + ": " + e);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    // Строка пишется только пока блокировка наша - процесс, у которого забрали просроченную
+    // или чья сессия с advisory-блокировкой оборвалась, не сможет отметить миграцию применённой
+    private int recordMigration(Connection connection, String version, boolean successful, String checksum, LockStrategy lock)
+            throws SQLException, LockException {
+        String fencing = lock.getFencingCondition();
+        String insertSQL = fencing != null
+                ? "INSERT INTO migration_history (version, successful, checksum) SELECT ?, ?, ? WHERE " + fencing
+                : "INSERT INTO migration_history (version, successful, checksum) VALUES (?, ?, ?)";
+        long start = System.nanoTime();
         try (PreparedStatement pstmt = connection.prepareStatement(insertSQL, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, version);
             pstmt.setBoolean(2, successful);
             pstmt.setString(3, checksum);
-            pstmt.executeUpdate();
+            if (pstmt.executeUpdate() == 0) {
+                throw new LockException("The migration lock is no longer held, " + version + " was not recorded.");
+            }
 
             // Получаем сгенерированный ID
             try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
@@ -87,46 +599,103 @@ public class MigrationExecutor {
                     throw new SQLException("Failed to retrieve the ID of the migration record.");
                 }
             }
+        } finally {
+            metrics.recordPhase(Phase.HISTORY_WRITE, start);
+        }
+    }
+
+    private void markMigrationSuccessful(Connection connection, int migrationId, LockStrategy lock)
+            throws SQLException, LockException {
+        String fencing = lock.getFencingCondition();
+        if (fencing == null) {
+            updateMigrationSuccess(connection, migrationId, true);
+            return;
+        }
+        String updateSQL = "UPDATE migration_history SET successful = ?, applied_at = CURRENT_TIMESTAMP WHERE id = ? AND "
+                + fencing;
+        long start = System.nanoTime();
+        try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+            pstmt.setBoolean(1, true);
+            pstmt.setInt(2, migrationId);
+            if (pstmt.executeUpdate() == 0) {
+                throw new LockException("The migration lock is no longer held, migration " + migrationId
+                        + " was not marked as applied.");
+            }
+        } finally {
+            metrics.recordPhase(Phase.HISTORY_WRITE, start);
         }
     }
 
-    private void updateMigrationSuccess(int migrationId, boolean successful) throws SQLException {
+    private void updateMigrationSuccess(Connection connection, int migrationId, boolean successful) throws SQLException {
         String updateSQL = "UPDATE migration_history SET successful = ?, applied_at = CURRENT_TIMESTAMP WHERE id = ?";
+        long start = System.nanoTime();
         try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
             pstmt.setBoolean(1, successful);
             pstmt.setInt(2, migrationId);
             pstmt.executeUpdate();
+        } finally {
+            metrics.recordPhase(Phase.HISTORY_WRITE, start);
         }
     }
 
-    private void applyMigrationWithHandling(Path migrationPath, LockExecutor lockExecutor) throws SQLException, MigrationExecutorException {
+    private void deleteFailedMigration(Connection connection, String version) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "DELETE FROM migration_history WHERE version = ? AND successful = FALSE")) {
+            pstmt.setString(1, version);
+            pstmt.executeUpdate();
+        } finally {
+            metrics.recordPhase(Phase.HISTORY_WRITE, start);
+        }
+    }
+
+    private void applyMigrationWithHandling(Connection connection, ResolvedMigration migration, LockStrategy lock)
+            throws SQLException, MigrationExecutorException {
         int migrationId = -1;
+        long start = -1;
+        long nanos = -1;
+        SessionTimeouts timeouts = null;
 
         try {
-            String fileName = migrationPath.getFileName().toString();
-            String currentChecksum = ChecksumUtil.calculateChecksum(migrationPath);
+            String fileName = migration.getFileName();
+            // Строка от прошлой неудачной попытки мешает повторной записи (version UNIQUE) - например,
+            // при продолжении backfill с сохранённого прогресса
+            deleteFailedMigration(connection, fileName);
 
-            // Записываем миграцию с successful = false перед применением
-            migrationId = recordMigration(fileName, false, currentChecksum);
+            // Записываем миграцию с successful = false перед применением.
+            // Контрольная сумма уже посчитана при поиске миграций, файл повторно не читаем
+            migrationId = recordMigration(connection, fileName, false, migration.getChecksum(), lock);
 
-            String sql = MigrationFileReader.readFile(migrationPath);
-
-            if (!lockExecutor.checkLockOwnership()) { // Проверка блокировки
+            if (!lock.isHeld()) { // Проверка блокировки
                 throw new LockException("The lock has been lost or belongs to another process. Migration cannot be continued.");
             }
 
-            applyMigration(sql);
+            Map<String, String> header = MigrationFileReader.readHeader(migration);
+            timeouts = applyTimeouts(connection, header);
+            // Выражения, упавшие по lock timeout, StatementRunner повторяет сам - сюда доходит только итог
+            publish(MigrationEvent.Type.MIGRATION_STARTED, fileName, 0, 0, null);
+            start = System.nanoTime();
+            nanos = applyMigration(connection, migration, header);
 
             // Обновляем запись миграции, устанавливая successful = true
-            updateMigrationSuccess(migrationId, true);
-            logger.log(Level.DEBUG, "Migration applied: " + fileName);
+            markMigrationSuccessful(connection, migrationId, lock);
+            migrationApplied(new AppliedMigration(fileName, nanos));
 
-        } catch (SQLException | LockException | IOException e) {
+        } catch (SQLException | LockException | MigrationExecutorException | IOException e) {
+            if (start >= 0) {
+                migrationFailed(migration.getFileName(), nanos >= 0 ? nanos : System.nanoTime() - start, e.getMessage());
+            }
             if (migrationId != -1) {
                 // Обновляем запись миграции, устанавливая successful = false
-                updateMigrationSuccess(migrationId, false);
+                updateMigrationSuccess(connection, migrationId, false);
             }
             throw new MigrationExecutorException("Error trying to apply migrations: " + e); // Перебрасываем исключение для дальнейшей обработки
+        } finally {
+            restoreTimeouts(timeouts);
         }
     }
+
+    // Выполненная, но ещё не зафиксированная миграция
+    private record AppliedMigration(String fileName, long nanos) {
+    }
 }
@@ -0,0 +1,147 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.MigrationVersion;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationExecutorException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Граф зависимостей между ожидающими миграциями.
+// Миграция без "-- lane:" - барьер: ждёт все предыдущие, и все последующие ждут её.
+// Миграция в lane ждёт предыдущую миграцию своего lane, последний барьер и всё из "-- depends:".
+public class MigrationGraph {
+    static final String LANE_DIRECTIVE = "lane";
+    static final String DEPENDS_DIRECTIVE = "depends";
+
+    private final List<ResolvedMigration> migrations;
+    private final List<List<Integer>> dependents;
+    private final int[] dependencyCounts;
+
+    private MigrationGraph(List<ResolvedMigration> migrations, List<List<Integer>> dependents, int[] dependencyCounts) {
+        this.migrations = migrations;
+        this.dependents = dependents;
+        this.dependencyCounts = dependencyCounts;
+    }
+
+    // migrations отсортированы по версии, headers - директивы соответствующих файлов,
+    // appliedVersions - успешные версии из истории: "-- depends:" может ссылаться и на них
+    static MigrationGraph build(List<ResolvedMigration> migrations, List<Map<String, String>> headers,
+                                Set<String> appliedVersions) throws MigrationExecutorException {
+        int size = migrations.size();
+        List<Set<Integer>> dependencies = new ArrayList<>(size);
+        Map<String, Integer> lastInLane = new HashMap<>();
+        Map<String, Integer> byName = indexByName(migrations);
+        Set<String> appliedNames = new HashSet<>();
+        MigrationVersion baselineVersion = indexApplied(appliedVersions, appliedNames);
+        int lastBarrier = -1;
+
+        for (int i = 0; i < size; i++) {
+            Set<Integer> deps = new LinkedHashSet<>();
+            Map<String, String> header = headers.get(i);
+            String lane = header.get(LANE_DIRECTIVE);
+
+            if (lane == null || lane.isBlank()) {
+                // Достаточно зависеть от последних миграций каждого lane - они сами ждут свои предыдущие
+                deps.addAll(lastInLane.values());
+                if (lastBarrier >= 0) {
+                    deps.add(lastBarrier);
+                }
+                lastBarrier = i;
+                lastInLane.clear();
+            } else {
+                Integer previous = lastInLane.get(lane.strip());
+                if (previous != null) {
+                    deps.add(previous);
+                } else if (lastBarrier >= 0) {
+                    deps.add(lastBarrier);
+                }
+                lastInLane.put(lane.strip(), i);
+            }
+
+            String depends = header.get(DEPENDS_DIRECTIVE);
+            if (depends != null) {
+                for (String token : depends.split("[,\\s]+")) {
+                    if (!token.isEmpty()) {
+                        Integer dependency = byName.get(token);
+                        if (dependency == null) {
+                            // Не среди ожидающих - должна быть уже применена, иначе это опечатка в имени
+                            if (appliedNames.contains(token) || baselineVersion != null
+                                    && MigrationVersion.parse(token).compareTo(baselineVersion) <= 0) {
+                                continue;
+                            }
+                            throw new MigrationExecutorException("Migration " + migrations.get(i).getFileName()
+                                    + " depends on " + token + ", which is neither pending nor applied.");
+                        }
+                        if (dependency >= i) {
+                            throw new MigrationExecutorException("Migration " + migrations.get(i).getFileName()
+                                    + " depends on " + token + ", which is not an earlier version.");
+                        }
+                        deps.add(dependency);
+                    }
+                }
+            }
+            dependencies.add(deps);
+        }
+
+        List<List<Integer>> dependents = new ArrayList<>(size);
+        int[] dependencyCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            dependencyCounts[i] = dependencies.get(i).size();
+            for (int dependency : dependencies.get(i)) {
+                dependents.get(dependency).add(i);
+            }
+        }
+        return new MigrationGraph(migrations, dependents, dependencyCounts);
+    }
+
+    int size() {
+        return migrations.size();
+    }
+
+    ResolvedMigration get(int index) {
+        return migrations.get(index);
+    }
+
+    List<Integer> getDependents(int index) {
+        return dependents.get(index);
+    }
+
+    int[] getDependencyCounts() {
+        return dependencyCounts.clone();
+    }
+
+    // "V1_2" совпадает с V1_2__name.sql, можно указать и полное имя файла
+    private static Map<String, Integer> indexByName(List<ResolvedMigration> migrations) {
+        Map<String, Integer> byName = new HashMap<>();
+        for (int i = 0; i < migrations.size(); i++) {
+            String fileName = migrations.get(i).getFileName();
+            byName.put(fileName, i);
+            byName.putIfAbsent(fileName.split("__")[0], i);
+        }
+        return byName;
+    }
+
+    // Имена и префиксы применённых версий; возвращает версию baseline сжатой истории или null -
+    // всё до неё применено, даже если самих строк и файлов уже нет
+    private static MigrationVersion indexApplied(Set<String> appliedVersions, Set<String> appliedNames) {
+        MigrationVersion baselineVersion = null;
+        for (String version : appliedVersions) {
+            if (HistoryCompactor.isBaseline(version)) {
+                baselineVersion = MigrationVersion.parse(HistoryCompactor.baselineFileName(version));
+            } else {
+                appliedNames.add(version);
+                appliedNames.add(version.split("__")[0]);
+            }
+        }
+        return baselineVersion;
+    }
+}
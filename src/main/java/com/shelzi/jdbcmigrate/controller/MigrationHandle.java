@@ -0,0 +1,44 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.MigrationResult;
+
+import java.util.concurrent.CompletableFuture;
+
+// Прогон, запущенный через migrateAsync. cancel() только просит остановиться перед следующей миграцией:
+// начатая доводится до конца, блокировка и соединения освобождаются, и лишь потом result() завершается
+// со статусом CANCELLED. До завершения result() закрывать connectionCreator нельзя
+public class MigrationHandle {
+    private volatile boolean cancellationRequested;
+    private final CompletableFuture<MigrationResult> result = new CompletableFuture<>() {
+        // Завершить future сразу нельзя: поток ещё держит блокировку и соединения, а итог прогона потерялся бы
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            MigrationHandle.this.cancel();
+            return false;
+        }
+    };
+
+    MigrationHandle() {
+    }
+
+    public void cancel() {
+        cancellationRequested = true;
+    }
+
+    public boolean isCancellationRequested() {
+        return cancellationRequested;
+    }
+
+    // Завершается, когда рабочий поток остановился; ошибки прогона - в MigrationResult, а не в исключении
+    public CompletableFuture<MigrationResult> result() {
+        return result;
+    }
+
+    void complete(MigrationResult migrationResult) {
+        result.complete(migrationResult);
+    }
+
+    void fail(Throwable e) {
+        result.completeExceptionally(e);
+    }
+}
@@ -1,10 +1,14 @@
 package com.shelzi.jdbcmigrate.controller;
 
+import com.shelzi.jdbcmigrate.database.SqlDialect;
 import com.shelzi.jdbcmigrate.entity.MigrationHistory;
+import com.shelzi.jdbcmigrate.util.ChecksumIndex;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class MigrationHelper {
     private final Connection connection;
@@ -15,9 +19,9 @@ public class MigrationHelper {
 
     void ensureMigrationTableExists() throws SQLException {
         String createTableSQL;
-        String dbProductName = connection.getMetaData().getDatabaseProductName().toLowerCase();
+        SqlDialect dialect = SqlDialect.fromConnection(connection);
 
-        if (dbProductName.contains("postgresql")) {
+        if (dialect == SqlDialect.POSTGRESQL) {
             createTableSQL = """
                         CREATE TABLE IF NOT EXISTS migration_history (
                             id SERIAL PRIMARY KEY,
@@ -27,7 +31,7 @@ public class MigrationHelper {
                             checksum VARCHAR(64)
                         );
                     """;
-        } else if (dbProductName.contains("mysql")) {
+        } else if (dialect == SqlDialect.MYSQL) {
             createTableSQL = """
                         CREATE TABLE IF NOT EXISTS migration_history (
                             id INT AUTO_INCREMENT PRIMARY KEY,
@@ -37,7 +41,7 @@ public class MigrationHelper {
                             checksum VARCHAR(64)
                         );
                     """;
-        } else if (dbProductName.contains("h2")) {
+        } else if (dialect == SqlDialect.H2) {
             createTableSQL = """
                         CREATE TABLE IF NOT EXISTS migration_history (
                             id INTEGER AUTO_INCREMENT PRIMARY KEY,
@@ -85,4 +89,58 @@ public class MigrationHelper {
         return appliedMigrations;
     }
 
+    // Только имена успешно применённых миграций - без контрольных сумм и дат
+    Set<String> getSuccessfulVersions() throws SQLException {
+        String query = "SELECT version FROM migration_history WHERE successful = TRUE";
+        Set<String> versions = new HashSet<>();
+
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                versions.add(rs.getString(1));
+            }
+        }
+        return versions;
+    }
+
+    // Потоково читаем только version и checksum успешных строк с id > afterId.
+    // Возвращает максимальный прочитанный id (или afterId, если новых строк нет)
+    long loadSuccessfulChecksums(long afterId, int fetchSize, ChecksumIndex into) throws SQLException {
+        String query = "SELECT id, version, checksum FROM migration_history WHERE id > ? AND successful = TRUE";
+        long maxId = afterId;
+
+        // PostgreSQL отдаёт строки порциями через курсор только вне режима autocommit
+        boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+            pstmt.setFetchSize(fetchSize);
+            pstmt.setLong(1, afterId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    maxId = Math.max(maxId, rs.getLong(1));
+                    into.put(rs.getString(2), rs.getString(3));
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+        }
+        return maxId;
+    }
+
+    // Сколько успешных строк с id <= upToId - сверка локального снимка с базой
+    long countSuccessful(long upToId) throws SQLException {
+        String query = "SELECT COUNT(*) FROM migration_history WHERE id <= ? AND successful = TRUE";
+        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+            pstmt.setLong(1, upToId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.MigrationEvent;
+
+// Вызывается из потока миграции, при параллельном применении - из нескольких потоков сразу.
+// Исключения слушателя логируются и на миграцию не влияют
+@FunctionalInterface
+public interface MigrationListener {
+    void onEvent(MigrationEvent event);
+}
@@ -1,76 +1,194 @@
 package com.shelzi.jdbcmigrate.controller;
 
-import com.shelzi.jdbcmigrate.entity.MigrationHistory;
+import com.shelzi.jdbcmigrate.entity.MigrationCatalog;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.MigrationVersion;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
 import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
 import com.shelzi.jdbcmigrate.exception.MigrationManagerException;
 import com.shelzi.jdbcmigrate.io.MigrationFileReader;
-import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import com.shelzi.jdbcmigrate.io.MigrationResolver;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.metrics.Phase;
+import com.shelzi.jdbcmigrate.util.ChecksumIndex;
+import com.shelzi.jdbcmigrate.util.HistorySnapshot;
 import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.file.Path;
-
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MigrationManager {
     private final Connection connection;
-    private final String migrationDirectory;
+    private final MigrationConfig config;
+    private final List<ResolvedMigration> resolvedMigrations;
+    private final AtomicReference<HistorySnapshot> historyCache;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 
     public MigrationManager(Connection connection, String migrationDirectory) {
+        this(connection, new MigrationConfig(migrationDirectory));
+    }
+
+    public MigrationManager(Connection connection, MigrationConfig config) {
+        this(connection, config, null);
+    }
+
+    // resolvedMigrations - уже прочитанный и захешированный набор файлов, общий для нескольких баз/схем
+    public MigrationManager(Connection connection, MigrationConfig config, List<ResolvedMigration> resolvedMigrations) {
+        this(connection, config, resolvedMigrations, null);
+    }
+
+    // historyCache - снимок истории в памяти долгоживущего процесса (режим watch), работает как снимок
+    // из migration.history.snapshot.dir, но без файла
+    public MigrationManager(Connection connection, MigrationConfig config, List<ResolvedMigration> resolvedMigrations,
+                            AtomicReference<HistorySnapshot> historyCache) {
         this.connection = connection;
-        this.migrationDirectory = migrationDirectory;
+        this.config = config;
+        this.resolvedMigrations = resolvedMigrations;
+        this.historyCache = historyCache;
     }
 
-    public List<Path> getMigrations() throws MigrationFileReaderException, MigrationManagerException {
-        MigrationHelper migrationHelper = new MigrationHelper(connection);
-        List<MigrationHistory> appliedMigrations;
+    public List<ResolvedMigration> getMigrations() throws MigrationFileReaderException, MigrationManagerException {
+        ChecksumIndex appliedChecksums;
         try {
-            migrationHelper.ensureMigrationTableExists();
-            // Получаем список уже применённых миграций
-            appliedMigrations = migrationHelper.getAppliedMigrations();
+            appliedChecksums = loadAppliedChecksums();
         } catch (SQLException e) {
             throw new MigrationManagerException(
                     "Migration table didn't exist or problem appear while trying to access one.", e);
         }
 
-        // Создаём Map версий и их контрольных сумм
-        Map<String, String> appliedChecksums = appliedMigrations.stream()
-                .filter(MigrationHistory::isSuccessful)
-                .collect(Collectors.toMap(MigrationHistory::getVersion, MigrationHistory::getChecksum));
-
-        // Получаем файлы миграций
-        List<Path> migrationFiles;
+        // Получаем файлы миграций: один проход по директории, чтение и хеширование параллельно
+        List<ResolvedMigration> migrationFiles;
         try {
-            migrationFiles = MigrationFileReader.getMigrationFiles(migrationDirectory);
+            migrationFiles = resolvedMigrations != null
+                    ? resolvedMigrations
+                    : new MigrationResolver(config).resolve(config.getMigrationDirectory());
         } catch (MigrationFileReaderException e) {
             throw new MigrationManagerException(
                     "No such directory or access violation while trying to obtain migration files.", e);
         }
-        List<Path> pendingMigrationsList;
+        List<ResolvedMigration> pendingMigrationsList;
         try {
-            pendingMigrationsList = getPendingMigrations(migrationFiles, appliedChecksums);
-        } catch (IOException | MigrationManagerException e) {
+            pendingMigrationsList = getPendingMigrations(MigrationCatalog.of(migrationFiles), appliedChecksums);
+        } catch (MigrationManagerException e) {
             throw new MigrationManagerException("Error while trying to get pending migrations.", e);
         }
 
-
         return pendingMigrationsList;
     }
 
-    private List<Path> getPendingMigrations(List<Path> migrationFiles, Map<String, String> appliedChecksums) throws IOException, MigrationManagerException {
-        List<Path> pendingMigrationsList = new ArrayList<>();
-        for (Path filePath : migrationFiles) {
-            String fileName = filePath.getFileName().toString();
-            String currentChecksum = ChecksumUtil.calculateChecksum(filePath);
+    // Ожидающие миграции новее fromVersion и не новее toVersion; null - без ограничения с этой стороны
+    public List<ResolvedMigration> getMigrations(String fromVersion, String toVersion)
+            throws MigrationFileReaderException, MigrationManagerException {
+        return MigrationCatalog.of(getMigrations()).between(
+                fromVersion != null ? MigrationVersion.parse(fromVersion) : null,
+                toVersion != null ? MigrationVersion.parse(toVersion) : null);
+    }
+
+    // Дешёвая проверка для ведомого процесса: сравниваем только имена файлов с историей,
+    // без чтения и хеширования файлов (контрольные суммы уже проверил ведущий)
+    public boolean hasUnappliedFiles() throws MigrationFileReaderException, MigrationManagerException {
+        Set<String> appliedVersions;
+        try {
+            MigrationHelper migrationHelper = new MigrationHelper(connection);
+            migrationHelper.ensureMigrationTableExists();
+            appliedVersions = migrationHelper.getSuccessfulVersions();
+        } catch (SQLException e) {
+            throw new MigrationManagerException(
+                    "Migration table didn't exist or problem appear while trying to access one.", e);
+        }
+
+        // Файлы до baseline сжатой истории считаются применёнными
+        String baselineFile = appliedVersions.stream()
+                .filter(HistoryCompactor::isBaseline)
+                .map(HistoryCompactor::baselineFileName)
+                .findFirst()
+                .orElse(null);
+        MigrationVersion baselineVersion = baselineFile != null ? MigrationVersion.parse(baselineFile) : null;
+        MigrationVersion upToVersion = config.getUpToVersion() != null ? MigrationVersion.parse(config.getUpToVersion()) : null;
+        List<String> fileNames = resolvedMigrations != null
+                ? resolvedMigrations.stream().map(ResolvedMigration::getFileName).toList()
+                : MigrationFileReader.getMigrationFiles(config.getMigrationDirectory()).stream()
+                .map(path -> path.getFileName().toString()).toList();
+        return fileNames.stream().anyMatch(fileName -> {
+            if (appliedVersions.contains(fileName)) {
+                return false;
+            }
+            MigrationVersion version = MigrationVersion.parse(fileName);
+            return (baselineVersion == null || version.compareTo(baselineVersion) > 0)
+                    && (upToVersion == null || version.compareTo(upToVersion) <= 0);
+        });
+    }
+
+    // Успешно применённые версии и их контрольные суммы. Со снимком из migration.history.snapshot.dir
+    // из базы читаются только строки новее watermark; снимок отбрасывается, если число строк до watermark изменилось
+    private ChecksumIndex loadAppliedChecksums() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return loadAppliedChecksums(new MigrationHelper(connection));
+        } finally {
+            MigrationMetrics.getInstance().recordPhase(Phase.HISTORY_LOAD, start);
+        }
+    }
+
+    private ChecksumIndex loadAppliedChecksums(MigrationHelper migrationHelper) throws SQLException {
+        migrationHelper.ensureMigrationTableExists();
+        int fetchSize = config.getHistoryFetchSize();
+        if (config.getHistorySnapshotDirectory() == null && historyCache == null) {
+            ChecksumIndex checksums = new ChecksumIndex();
+            migrationHelper.loadSuccessfulChecksums(0, fetchSize, checksums);
+            return checksums;
+        }
+
+        Path snapshotFile = config.getHistorySnapshotDirectory() != null
+                ? HistorySnapshot.fileFor(Path.of(config.getHistorySnapshotDirectory()),
+                connection.getMetaData().getURL() + "|" + connection.getSchema())
+                : null;
+        HistorySnapshot snapshot = historyCache != null ? historyCache.get() : null;
+        if (snapshot == null && snapshotFile != null) {
+            snapshot = HistorySnapshot.load(snapshotFile);
+        }
+        if (snapshot != null && migrationHelper.countSuccessful(snapshot.getWatermark()) != snapshot.getChecksums().size()) {
+            logger.log(Level.INFO, "History snapshot is out of date, loading the whole migration history.");
+            snapshot = null;
+        }
+        ChecksumIndex checksums = snapshot != null ? snapshot.getChecksums() : new ChecksumIndex();
+        long watermark = snapshot != null ? snapshot.getWatermark() : 0;
+        long newWatermark = migrationHelper.loadSuccessfulChecksums(watermark, fetchSize, checksums);
+        logger.log(Level.DEBUG, "Loaded migration history after id " + watermark + ", " + checksums.size() + " applied versions.");
+
+        if (historyCache != null) {
+            historyCache.set(new HistorySnapshot(newWatermark, checksums));
+        }
+        if (snapshotFile != null && (snapshot == null || newWatermark != watermark)) {
+            try {
+                new HistorySnapshot(newWatermark, checksums).save(snapshotFile);
+            } catch (IOException e) {
+                // Снимок - только ускорение, без него следующий запуск прочитает историю целиком
+                logger.log(Level.WARN, "History snapshot " + snapshotFile + " can't be saved: " + e);
+            }
+        }
+        return checksums;
+    }
+
+    private List<ResolvedMigration> getPendingMigrations(MigrationCatalog catalog, ChecksumIndex appliedChecksums) throws MigrationManagerException {
+        List<ResolvedMigration> migrationFiles = skipBaseline(catalog, appliedChecksums);
+        // Файлы новее migration.up.to.version не применяем, но уже применённые из них всё равно сверяем
+        MigrationVersion upToVersion = config.getUpToVersion() != null ? MigrationVersion.parse(config.getUpToVersion()) : null;
+        List<ResolvedMigration> pendingMigrationsList = new ArrayList<>();
+        int skipped = 0;
+        for (ResolvedMigration migration : migrationFiles) {
+            String fileName = migration.getFileName();
+            String currentChecksum = migration.getChecksum();
 
-            if (appliedChecksums.containsKey(fileName)) {
+            if (appliedChecksums.contains(fileName)) {
                 String appliedChecksum = appliedChecksums.get(fileName);
                 if (!currentChecksum.equals(appliedChecksum)) {
                     // Контрольная сумма изменилась
@@ -80,8 +198,39 @@ public class MigrationManager {
                     continue;
                 }
             }
-            pendingMigrationsList.add(filePath);
+            if (upToVersion != null && migration.getVersion().compareTo(upToVersion) > 0) {
+                skipped++;
+                continue;
+            }
+            pendingMigrationsList.add(migration);
+        }
+        if (skipped > 0) {
+            logger.log(Level.INFO, "Migrating up to version " + upToVersion + ", " + skipped + " newer migrations are left pending.");
         }
         return pendingMigrationsList;
     }
-}
\ No newline at end of file
+
+    // Файлы до baseline сжатой истории (см. HistoryCompactor) проверяются одной общей контрольной суммой
+    // и дальше не рассматриваются. Если старые файлы удалены целиком, проверять нечего
+    private List<ResolvedMigration> skipBaseline(MigrationCatalog catalog, ChecksumIndex appliedChecksums)
+            throws MigrationManagerException {
+        String[] baseline = new String[2];
+        appliedChecksums.forEach((version, checksum) -> {
+            if (HistoryCompactor.isBaseline(version)) {
+                baseline[0] = HistoryCompactor.baselineFileName(version);
+                baseline[1] = checksum;
+            }
+        });
+        if (baseline[0] == null) {
+            return catalog.getMigrations();
+        }
+
+        MigrationVersion baselineVersion = MigrationVersion.parse(baseline[0]);
+        List<ResolvedMigration> covered = catalog.upTo(baselineVersion);
+        if (!covered.isEmpty() && !HistoryCompactor.aggregateChecksum(covered).equals(baseline[1])) {
+            throw new MigrationManagerException("Migrations at or below baseline " + baseline[0]
+                    + " were added, removed or modified after the history was compacted.");
+        }
+        return catalog.between(baselineVersion, null);
+    }
+}
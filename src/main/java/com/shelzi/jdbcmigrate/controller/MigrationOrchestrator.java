@@ -0,0 +1,191 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.MigrationReport;
+import com.shelzi.jdbcmigrate.entity.MigrationTarget;
+import com.shelzi.jdbcmigrate.entity.MigrationTargetResult;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+import com.shelzi.jdbcmigrate.io.MigrationResolver;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import com.shelzi.jdbcmigrate.util.ThreadPools;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Применяет один набор миграций к нескольким целям (схемам, базам) с ограниченным параллелизмом.
+// Файлы читаются и хешируются один раз, у каждой цели своя migration_history и своя блокировка.
+public class MigrationOrchestrator {
+    private final MigrationConfig config;
+    private final int concurrency;
+    private final boolean continueOnError;
+    private final int retries;
+    private final long retryDelayMillis;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public MigrationOrchestrator(MigrationConfig config, int concurrency, boolean continueOnError) {
+        this(config, concurrency, continueOnError, 0, 0);
+    }
+
+    public MigrationOrchestrator(MigrationConfig config, int concurrency, boolean continueOnError,
+                                 int retries, long retryDelayMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        this.config = config;
+        this.concurrency = concurrency;
+        this.continueOnError = continueOnError;
+        this.retries = Math.max(0, retries);
+        this.retryDelayMillis = Math.max(0, retryDelayMillis);
+    }
+
+    public MigrationReport run(List<MigrationTarget> targets) throws MigrationException {
+        List<ResolvedMigration> resolvedMigrations = new MigrationResolver(config).resolve(config.getMigrationDirectory());
+        return run(targets, resolvedMigrations);
+    }
+
+    public MigrationReport run(List<MigrationTarget> targets, List<ResolvedMigration> resolvedMigrations) throws MigrationException {
+        MigrationReport report = new MigrationReport();
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicInteger finished = new AtomicInteger();
+        ExecutorService executor = ThreadPools.newIoExecutor(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<>(targets.size());
+            for (MigrationTarget target : targets) {
+                futures.add(executor.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        MigrationTargetResult result = stopped.get()
+                                ? new MigrationTargetResult(target.getName(), MigrationTargetResult.Status.SKIPPED, null, 0)
+                                : migrateTargetWithRetries(target, resolvedMigrations);
+                        if (result.getStatus() == MigrationTargetResult.Status.FAILED && !continueOnError) {
+                            stopped.set(true);
+                        }
+                        report.add(result);
+                        logger.log(result.getStatus() == MigrationTargetResult.Status.FAILED ? Level.ERROR : Level.INFO,
+                                "[" + finished.incrementAndGet() + "/" + targets.size() + "] " + target.getName() + ": "
+                                        + result.getStatus() + " in " + result.getDurationMillis() + " ms"
+                                        + (result.getAttempts() > 1 ? " after " + result.getAttempts() + " attempts" : "")
+                                        + (result.getErrorMessage() != null ? " - " + result.getErrorMessage() : ""));
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while migrating targets.", e);
+        } catch (ExecutionException e) {
+            throw new MigrationException("Unexpected error while migrating targets: " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+
+        logger.log(report.isSuccessful() ? Level.INFO : Level.ERROR, "Migration of " + targets.size()
+                + " targets finished: " + report);
+        return report;
+    }
+
+    // Повторяем только упавшую цель; уже применённые на ней миграции повторно не выполняются
+    private MigrationTargetResult migrateTargetWithRetries(MigrationTarget target, List<ResolvedMigration> resolvedMigrations) {
+        long start = System.nanoTime();
+        String error = null;
+        int attempt = 0;
+        try {
+            while (attempt <= retries) {
+                if (attempt > 0) {
+                    long delay = retryDelayMillis << Math.min(attempt - 1, 10);
+                    logger.log(Level.WARN, target.getName() + ": attempt " + attempt + " failed (" + error
+                            + "), retrying in " + delay + " ms");
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                attempt++;
+                error = migrateTarget(target, resolvedMigrations);
+                if (error == null) {
+                    return new MigrationTargetResult(target.getName(), MigrationTargetResult.Status.SUCCESS, null,
+                            elapsedMillis(start), attempt);
+                }
+            }
+            return new MigrationTargetResult(target.getName(), MigrationTargetResult.Status.FAILED, error,
+                    elapsedMillis(start), attempt);
+        } finally {
+            if (target.isOwnsConnectionCreator()) {
+                closeConnectionCreator(target);
+            }
+        }
+    }
+
+    // null - успех, иначе текст ошибки
+    private String migrateTarget(MigrationTarget target, List<ResolvedMigration> resolvedMigrations) {
+        try (Connection connection = target.getConnectionCreator().getConnection()) {
+            if (target.getSchema() != null && !target.getSchema().isEmpty()) {
+                connection.setSchema(target.getSchema());
+            }
+            new MigrationExecutor(connection, config, target.getConnectionCreator(), resolvedMigrations).applyMigrations();
+            return null;
+        } catch (SQLException | IOException | ClassNotFoundException | MigrationException | RuntimeException e) {
+            return e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+    }
+
+    private void closeConnectionCreator(MigrationTarget target) {
+        if (target.getConnectionCreator() instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) target.getConnectionCreator()).close();
+            } catch (Exception e) {
+                logger.log(Level.WARN, target.getName() + ": error when closing connections: " + e.getMessage());
+            }
+        }
+    }
+
+    // Список схем из запроса вида "SELECT schema_name FROM information_schema.schemata WHERE ..."
+    public static List<String> discoverSchemas(ConnectionCreator connectionCreator, String query)
+            throws SQLException, ClassNotFoundException {
+        List<String> schemas = new ArrayList<>();
+        try (Connection connection = connectionCreator.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                schemas.add(rs.getString(1));
+            }
+        }
+        return schemas;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,5 +1,24 @@
 package com.shelzi.jdbcmigrate.controller;
 
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+
 public interface MigrationTool {
     void migrate(String[] args);
+
+    // Для встраивания в приложение: прогон в отдельном потоке, ошибки - в MigrationResult, а не в лог.
+    // cancel() у MigrationHandle останавливает прогон перед следующей миграцией. schema и listener могут быть null,
+    // connectionCreator закрывает вызывающий после завершения result()
+    MigrationHandle migrateAsync(MigrationConfig config, ConnectionCreator connectionCreator,
+                                 String schema, MigrationListener listener);
+
+    // args: версия, до которой сжимается история, и необязательный путь к конфигурации
+    void compact(String[] args);
+
+    // args: директория с миграциями, в которую пишется migrations.index (шаг сборки)
+    void index(String[] args) throws MigrationException;
+
+    // Работает до остановки процесса: применяет новые миграции по мере появления файлов
+    void watch(String[] args);
 }
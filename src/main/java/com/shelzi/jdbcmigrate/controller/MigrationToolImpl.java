@@ -2,16 +2,39 @@ package com.shelzi.jdbcmigrate.controller;
 
 import com.shelzi.jdbcmigrate.database.ConnectionCreator;
 import com.shelzi.jdbcmigrate.database.ConnectionFactory;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.MigrationEvent;
+import com.shelzi.jdbcmigrate.entity.MigrationReport;
+import com.shelzi.jdbcmigrate.entity.MigrationResult;
+import com.shelzi.jdbcmigrate.entity.MigrationTarget;
+import com.shelzi.jdbcmigrate.entity.MigrationTargetResult;
+import com.shelzi.jdbcmigrate.exception.MigrationCancelledException;
 import com.shelzi.jdbcmigrate.exception.MigrationException;
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+import com.shelzi.jdbcmigrate.io.FailedTargetsFile;
+import com.shelzi.jdbcmigrate.io.MigrationIndex;
+import com.shelzi.jdbcmigrate.io.MigrationLocation;
+import com.shelzi.jdbcmigrate.io.ShardManifestReader;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
 import com.shelzi.jdbcmigrate.util.LoggerFactory;
 import com.shelzi.jdbcmigrate.util.PropertiesUtil;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 public class MigrationToolImpl implements MigrationTool {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -22,38 +45,151 @@ public class MigrationToolImpl implements MigrationTool {
     @Override
     public void migrate(String[] args) {
         try {
-            // Определяем путь к файлу конфигурации
-            String configFilePath;
-            if (args.length > 0) {
-                configFilePath = args[0];
-                logger.log(Level.DEBUG, "A configuration file is used: " + configFilePath);
-            } else {
-                // Используем файл из ресурсов по умолчанию
-                configFilePath = "application.properties";
-                logger.log(Level.DEBUG, "The default configuration file from the resources is used: " + configFilePath);
+            Properties properties = loadProperties(args, 0);
+
+            MigrationConfig config = MigrationConfig.fromProperties(properties);
+            startMetrics(config);
+            try {
+                migrate(properties, config);
+            } finally {
+                writeMetrics(config);
             }
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.ERROR, "Database driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            logger.log(Level.ERROR, "Database connection error: " + e.getMessage());
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error when working with configuration or migration files: " + e.getMessage());
+        } catch (MigrationException e) {
+            logger.log(Level.ERROR, "No such schema found in database: " + e.getMessage());
+        }
+    }
 
-            // Загружаем конфигурацию
-            Properties properties = PropertiesUtil.loadProperties(configFilePath);
+    private void migrate(Properties properties, MigrationConfig config)
+            throws SQLException, ClassNotFoundException, IOException, MigrationException {
+        if (isShardFanOut(properties)) {
+            migrateShards(properties, config);
+            return;
+        }
 
-            // Создаём ConnectionCreator через фабрику
-            ConnectionCreator connectionCreator = ConnectionFactory.createConnectionCreator(properties);
+        // Создаём ConnectionCreator через фабрику
+        ConnectionCreator connectionCreator = ConnectionFactory.createConnectionCreator(properties);
+
+        try {
+            if (isTenantFanOut(properties)) {
+                migrateTenants(properties, config, connectionCreator);
+                return;
+            }
+            ConnectionFactory.checkPoolCapacity(connectionCreator, config.requiredConnections());
 
             // Получаем соединение
             try (Connection connection = connectionCreator.getConnection()) {
 
                 setDatabaseSchemaFromProperty(properties, connection);
 
-                String migrationDirectory = properties.getProperty("migration.directory");
-
                 // Инициализируем менеджер миграций
-                MigrationExecutor migrationExecutor = new MigrationExecutor(connection, migrationDirectory);
+                MigrationExecutor migrationExecutor = new MigrationExecutor(connection, config, connectionCreator);
 
                 // Применяем миграции
                 migrationExecutor.applyMigrations();
 
                 logger.log(Level.DEBUG, "The migrations have been successfully applied!");
             }
+        } finally {
+            closeConnectionCreator(connectionCreator);
+        }
+    }
+
+    @Override
+    public MigrationHandle migrateAsync(MigrationConfig config, ConnectionCreator connectionCreator,
+                                        String schema, MigrationListener listener) {
+        MigrationHandle handle = new MigrationHandle();
+        Thread thread = new Thread(() -> {
+            try {
+                handle.complete(runMigration(config, connectionCreator, schema, listener, handle::isCancellationRequested));
+            } catch (Throwable e) {
+                handle.fail(e);
+            }
+        }, "jdbc-migrate-async");
+        thread.start();
+        return handle;
+    }
+
+    private MigrationResult runMigration(MigrationConfig config, ConnectionCreator connectionCreator, String schema,
+                                         MigrationListener listener, BooleanSupplier cancelled) {
+        long start = System.nanoTime();
+        Map<String, Long> applied = Collections.synchronizedMap(new LinkedHashMap<>());
+        MigrationListener collector = event -> {
+            if (event.getType() == MigrationEvent.Type.MIGRATION_FINISHED) {
+                applied.put(event.getMigration(), event.getDurationMillis());
+            }
+            if (listener != null) {
+                listener.onEvent(event);
+            }
+        };
+
+        MigrationResult.Status status;
+        String error = null;
+        startMetrics(config);
+        try (Connection connection = connectionCreator.getConnection()) {
+            ConnectionFactory.checkPoolCapacity(connectionCreator, config.requiredConnections());
+            if (schema != null && !schema.isEmpty()) {
+                connection.setSchema(schema);
+            }
+            new MigrationExecutor(connection, config, connectionCreator, null, null, collector, cancelled).applyMigrations();
+            status = MigrationResult.Status.SUCCESS;
+        } catch (MigrationCancelledException e) {
+            status = MigrationResult.Status.CANCELLED;
+            error = e.getMessage();
+        } catch (SQLException | ClassNotFoundException | IOException | MigrationException | RuntimeException e) {
+            status = MigrationResult.Status.FAILED;
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+            writeMetrics(config);
+        }
+
+        MigrationResult result = new MigrationResult(status, applied, error,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Level level = switch (status) {
+            case SUCCESS -> Level.DEBUG;
+            case CANCELLED -> Level.WARN;
+            default -> Level.ERROR;
+        };
+        logger.log(level, "Asynchronous migration finished: " + result);
+        MigrationEvent.Type terminal = switch (status) {
+            case SUCCESS -> MigrationEvent.Type.COMPLETED;
+            case CANCELLED -> MigrationEvent.Type.CANCELLED;
+            default -> MigrationEvent.Type.FAILED;
+        };
+        if (listener != null) {
+            try {
+                listener.onEvent(new MigrationEvent(terminal, null, applied.size(), result.getDurationMillis(), error));
+            } catch (RuntimeException e) {
+                logger.log(Level.WARN, "Migration listener failed on " + terminal + ": " + e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void compact(String[] args) {
+        if (args.length == 0) {
+            logger.log(Level.ERROR, "Usage: compact <version> [config file]");
+            return;
+        }
+        try {
+            Properties properties = loadProperties(args, 1);
+            MigrationConfig config = MigrationConfig.fromProperties(properties);
+            startMetrics(config);
+            ConnectionCreator connectionCreator = ConnectionFactory.createConnectionCreator(properties);
+            try (Connection connection = connectionCreator.getConnection()) {
+                setDatabaseSchemaFromProperty(properties, connection);
+                int archived = new HistoryCompactor(connection, config).compact(args[0]);
+                logger.log(Level.INFO, "History compacted up to " + args[0] + ", " + archived + " rows archived.");
+            } finally {
+                closeConnectionCreator(connectionCreator);
+                writeMetrics(config);
+            }
         } catch (ClassNotFoundException e) {
             logger.log(Level.ERROR, "Database driver not found: " + e.getMessage());
         } catch (SQLException e) {
@@ -61,7 +197,192 @@ public class MigrationToolImpl implements MigrationTool {
         } catch (IOException e) {
             logger.log(Level.ERROR, "Error when working with configuration or migration files: " + e.getMessage());
         } catch (MigrationException e) {
-            logger.log(Level.ERROR, "No such schema found in database: " + e.getMessage());
+            logger.log(Level.ERROR, "History compaction failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void watch(String[] args) {
+        try {
+            Properties properties = loadProperties(args, 0);
+            MigrationConfig config = MigrationConfig.fromProperties(properties);
+            startMetrics(config);
+            ConnectionCreator connectionCreator = ConnectionFactory.createConnectionCreator(properties);
+            ConnectionFactory.checkPoolCapacity(connectionCreator, config.requiredConnections());
+            MigrationWatcher watcher = new MigrationWatcher(connectionCreator, config, properties.getProperty("db.schema"));
+            Thread watchThread = Thread.currentThread();
+            Thread shutdownHook = new Thread(() -> {
+                watcher.close();
+                try {
+                    // Даём текущему прогону закончиться и отпустить блокировку
+                    watchThread.join(30_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "migration-watch-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+            try {
+                watcher.run();
+            } finally {
+                closeConnectionCreator(connectionCreator);
+                writeMetrics(config);
+            }
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error when working with configuration or migration files: " + e.getMessage());
+        } catch (MigrationException e) {
+            logger.log(Level.ERROR, "Watch mode stopped: " + e.getMessage());
+        }
+    }
+
+    // Ошибку не только логируем, но и пробрасываем: иначе сборка с -Pmigration-index пройдёт без индекса
+    @Override
+    public void index(String[] args) throws MigrationException {
+        if (args.length == 0) {
+            throw new MigrationException("Usage: index <migration directory>");
+        }
+        try {
+            Path indexFile = MigrationIndex.write(MigrationLocation.resolve(args[0]));
+            logger.log(Level.INFO, "Migration index written: " + indexFile);
+        } catch (IOException e) {
+            logger.log(Level.ERROR, "Error when writing the migration index: " + e.getMessage());
+            throw new MigrationFileReaderException("Error when writing the migration index: " + e.getMessage(), e);
+        } catch (MigrationException e) {
+            logger.log(Level.ERROR, "Migration index can't be built: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private void startMetrics(MigrationConfig config) {
+        if (config.isMetricsJmxEnabled()) {
+            MigrationMetrics.getInstance().registerMBean();
+        }
+    }
+
+    // Пишем в конце запуска, в том числе неудачного
+    private void writeMetrics(MigrationConfig config) {
+        if (config.getMetricsFile() == null || config.getMetricsFile().isBlank()) {
+            return;
+        }
+        try {
+            MigrationMetrics.getInstance().writePrometheusFile(Path.of(config.getMetricsFile()));
+        } catch (IOException e) {
+            logger.log(Level.WARN, "Failed to write metrics file " + config.getMetricsFile() + ": " + e.getMessage());
+        }
+    }
+
+    private Properties loadProperties(String[] args, int index) throws IOException {
+        // Определяем путь к файлу конфигурации
+        String configFilePath;
+        if (args.length > index) {
+            configFilePath = args[index];
+            logger.log(Level.DEBUG, "A configuration file is used: " + configFilePath);
+        } else {
+            // Используем файл из ресурсов по умолчанию
+            configFilePath = "application.properties";
+            logger.log(Level.DEBUG, "The default configuration file from the resources is used: " + configFilePath);
+        }
+
+        // Загружаем конфигурацию
+        return PropertiesUtil.loadProperties(configFilePath);
+    }
+
+    private boolean isTenantFanOut(Properties properties) {
+        return !isBlank(properties.getProperty("db.schemas")) || !isBlank(properties.getProperty("db.schemas.query"));
+    }
+
+    // Схема на арендатора: один набор миграций на все схемы из db.schemas и/или db.schemas.query
+    private void migrateTenants(Properties properties, MigrationConfig config, ConnectionCreator connectionCreator)
+            throws SQLException, ClassNotFoundException, IOException, MigrationException {
+        List<String> schemas = new ArrayList<>();
+        String schemaList = properties.getProperty("db.schemas");
+        if (!isBlank(schemaList)) {
+            for (String schema : schemaList.split(",")) {
+                if (!schema.isBlank()) {
+                    schemas.add(schema.strip());
+                }
+            }
+        }
+        String schemaQuery = properties.getProperty("db.schemas.query");
+        if (!isBlank(schemaQuery)) {
+            schemas.addAll(MigrationOrchestrator.discoverSchemas(connectionCreator, schemaQuery));
+        }
+        logger.log(Level.DEBUG, "Applying migrations to " + schemas.size() + " schemas.");
+
+        List<MigrationTarget> targets = new ArrayList<>(schemas.size());
+        for (String schema : schemas) {
+            targets.add(new MigrationTarget(schema, connectionCreator, schema));
+        }
+        // Пул общий: одновременно идут до migration.targets.concurrency схем
+        ConnectionFactory.checkPoolCapacity(connectionCreator,
+                Math.min(config.getTargetConcurrency(), Math.max(targets.size(), 1)) * config.requiredConnections());
+        runTargets(config, targets);
+    }
+
+    private boolean isShardFanOut(Properties properties) {
+        return !isBlank(properties.getProperty("db.shards")) || !isBlank(properties.getProperty("db.shards.manifest"));
+    }
+
+    // Одна JVM на все шарды из db.shards и/или файла db.shards.manifest; остальные db.* общие
+    private void migrateShards(Properties properties, MigrationConfig config) throws IOException, MigrationException {
+        Map<String, String> shards = new LinkedHashMap<>();
+        String shardList = properties.getProperty("db.shards");
+        if (!isBlank(shardList)) {
+            shards.putAll(ShardManifestReader.parse(shardList));
+        }
+        String manifest = properties.getProperty("db.shards.manifest");
+        if (!isBlank(manifest)) {
+            shards.putAll(ShardManifestReader.read(Path.of(manifest)));
+        }
+        logger.log(Level.DEBUG, "Applying migrations to " + shards.size() + " shards.");
+
+        String schema = properties.getProperty("db.schema");
+        List<MigrationTarget> targets = new ArrayList<>(shards.size());
+        for (Map.Entry<String, String> shard : shards.entrySet()) {
+            ConnectionCreator connectionCreator = ConnectionFactory.createConnectionCreator(properties, shard.getValue());
+            ConnectionFactory.checkPoolCapacity(connectionCreator, config.requiredConnections());
+            targets.add(new MigrationTarget(shard.getKey(), connectionCreator, schema, true));
+        }
+        runTargets(config, targets);
+    }
+
+    private void runTargets(MigrationConfig config, List<MigrationTarget> targets) throws IOException, MigrationException {
+        Path failedTargetsFile = config.getFailedTargetsFile() != null ? Path.of(config.getFailedTargetsFile()) : null;
+        if (failedTargetsFile != null && config.isRetryFailedTargetsOnly()) {
+            Set<String> failed = FailedTargetsFile.read(failedTargetsFile);
+            if (!failed.isEmpty()) {
+                targets = targets.stream().filter(target -> failed.contains(target.getName())).collect(Collectors.toList());
+                logger.log(Level.INFO, "Retrying " + targets.size() + " targets that failed in the previous run.");
+            }
+        }
+
+        MigrationReport report = new MigrationOrchestrator(config, config.getTargetConcurrency(), config.isContinueOnError(),
+                config.getTargetRetries(), config.getTargetRetryDelayMillis()).run(targets);
+        List<String> unfinished = new ArrayList<>();
+        for (MigrationTargetResult result : report.getResults()) {
+            if (result.getStatus() == MigrationTargetResult.Status.FAILED) {
+                logger.log(Level.ERROR, "Target " + result.getTargetName() + " failed: " + result.getErrorMessage());
+            }
+            if (result.getStatus() != MigrationTargetResult.Status.SUCCESS) {
+                unfinished.add(result.getTargetName());
+            }
+        }
+        if (failedTargetsFile != null) {
+            FailedTargetsFile.write(failedTargetsFile, unfinished);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private void closeConnectionCreator(ConnectionCreator connectionCreator) {
+        // Пул держит физические соединения до конца работы
+        if (connectionCreator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) connectionCreator).close();
+            } catch (Exception e) {
+                logger.log(Level.WARN, "Error when closing connection pool: " + e.getMessage());
+            }
         }
     }
 
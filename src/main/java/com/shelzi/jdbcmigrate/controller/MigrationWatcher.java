@@ -0,0 +1,226 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationException;
+import com.shelzi.jdbcmigrate.io.MigrationFileReader;
+import com.shelzi.jdbcmigrate.io.MigrationLocation;
+import com.shelzi.jdbcmigrate.io.MigrationResolver;
+import com.shelzi.jdbcmigrate.util.HistorySnapshot;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// Режим watch для dev- и интеграционных стендов: один процесс следит за migration.directory,
+// держит в памяти файлы с контрольными суммами, снимок истории и соединение и после каждой
+// пачки изменений применяет только новое под обычной блокировкой.
+public class MigrationWatcher implements AutoCloseable {
+    private final ConnectionCreator connectionCreator;
+    private final MigrationConfig config;
+    private final String schema;
+    private final MigrationResolver resolver;
+    private final Map<Path, ResolvedMigration> catalog = new HashMap<>();
+    private final AtomicReference<HistorySnapshot> historyCache = new AtomicReference<>();
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+    private Connection connection;
+
+    public MigrationWatcher(ConnectionCreator connectionCreator, MigrationConfig config, String schema) {
+        this.connectionCreator = connectionCreator;
+        this.config = config;
+        this.schema = schema;
+        this.resolver = new MigrationResolver(config);
+    }
+
+    // Блокирует поток до close()
+    public void run() throws MigrationException, IOException {
+        Path root = MigrationLocation.resolve(config.getMigrationDirectory());
+        if (root.getFileSystem() != FileSystems.getDefault() || !Files.isDirectory(root)) {
+            throw new MigrationException("Watch mode needs a directory on the local file system: " + root.toUri());
+        }
+        watchService = root.getFileSystem().newWatchService();
+        try {
+            // Подписываемся до первого обхода, чтобы не пропустить файлы, появившиеся во время него
+            registerTree(root);
+            for (ResolvedMigration migration : resolver.resolve(root)) {
+                catalog.put(migration.getPath(), migration);
+            }
+            apply(root);
+
+            while (!closed) {
+                Set<Path> changed = awaitChanges();
+                if (updateCatalog(changed)) {
+                    apply(root);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() из другого потока, например из shutdown hook
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            closeConnection();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARN, "Error when closing the watch service: " + e.getMessage());
+        }
+    }
+
+    // Ждём первое событие, затем собираем следующие, пока каталог не затихнет на migration.watch.debounce.millis:
+    // редактор или git checkout меняют файлы пачкой, применять их нужно один раз
+    private Set<Path> awaitChanges() throws InterruptedException, IOException {
+        Set<Path> changed = new HashSet<>();
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : directory != null ? key.pollEvents() : List.<WatchEvent<?>>of()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // События потеряны - сверяем все известные файлы и всё, что лежит в каталоге
+                    changed.addAll(catalog.keySet());
+                    changed.addAll(listFiles(directory));
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    registerTree(path);
+                    changed.addAll(listFiles(path));
+                } else {
+                    changed.add(path);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+            key = watchService.poll(config.getWatchDebounceMillis(), TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    // Перечитываем и перехешируем только изменившиеся файлы; true - набор миграций изменился
+    private boolean updateCatalog(Set<Path> changed) throws MigrationException {
+        List<Path> updated = new ArrayList<>();
+        int removed = 0;
+        for (Path path : changed) {
+            if (Files.isRegularFile(path)) {
+                if (MigrationFileReader.isMigrationFile(path)) {
+                    updated.add(path);
+                }
+            } else if (!Files.exists(path)) {
+                // Удалён файл или целая поддиректория
+                int before = catalog.size();
+                catalog.keySet().removeIf(known -> known.startsWith(path));
+                removed += before - catalog.size();
+            }
+        }
+        for (ResolvedMigration migration : resolver.resolve(updated)) {
+            catalog.put(migration.getPath(), migration);
+        }
+        if (!updated.isEmpty() || removed > 0) {
+            logger.log(Level.INFO, "Migration files changed: " + updated.size() + " added or modified, " + removed + " removed.");
+        }
+        return !updated.isEmpty() || removed > 0;
+    }
+
+    // Ошибка миграции не останавливает watch: исправленный файл будет применён на следующей итерации
+    private void apply(Path root) {
+        List<ResolvedMigration> migrations = new ArrayList<>(catalog.values());
+        migrations.sort(Comparator.comparing(ResolvedMigration::getVersion));
+        try {
+            new MigrationExecutor(connection(), config, connectionCreator, migrations, historyCache).applyMigrations();
+            logger.log(Level.INFO, "Migrations are up to date (" + migrations.size() + " files), watching " + root + " for changes.");
+        } catch (MigrationException | SQLException | IOException e) {
+            logger.log(Level.ERROR, "Migration run failed: " + e.getMessage()
+                    + (e.getCause() != null ? " " + e.getCause().getMessage() : ""));
+        }
+    }
+
+    // Соединение держим между итерациями и заменяем, только если оно перестало отвечать
+    private Connection connection() throws SQLException {
+        if (connection != null && connection.isValid(2)) {
+            return connection;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.log(Level.DEBUG, "Error when closing a broken connection: " + e.getMessage());
+            }
+        }
+        try {
+            connection = connectionCreator.getConnection();
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Database driver not found: " + e.getMessage(), e);
+        }
+        if (schema != null && !schema.isEmpty()) {
+            connection.setSchema(schema);
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARN, "Error when closing the connection: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.walk(directory)) {
+            for (Path subdirectory : (Iterable<Path>) stream.filter(Files::isDirectory)::iterator) {
+                WatchKey key = subdirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, subdirectory);
+            }
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> stream = Files.walk(directory)) {
+            return stream.filter(Files::isRegularFile).toList();
+        }
+    }
+}
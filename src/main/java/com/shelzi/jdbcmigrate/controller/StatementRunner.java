@@ -0,0 +1,201 @@
+package com.shelzi.jdbcmigrate.controller;
+
+import com.shelzi.jdbcmigrate.entity.SqlStatement;
+import com.shelzi.jdbcmigrate.io.SqlStatementSplitter;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class StatementRunner {
+    private static final Pattern RETURNING = Pattern.compile("(?i)\\bRETURNING\\b");
+
+    private final Connection connection;
+    private final int batchSize;
+    private final int coalesceRows;
+    private final ConcurrentIndexBuilder indexBuilder;
+    private final LockTimeoutRetry lockRetry;
+
+    public StatementRunner(Connection connection, int batchSize) {
+        this(connection, batchSize, 0);
+    }
+
+    public StatementRunner(Connection connection, int batchSize, int coalesceRows) {
+        this(connection, batchSize, coalesceRows, null, null);
+    }
+
+    // indexBuilder и lockRetry - только для соединения в autocommit: CREATE INDEX CONCURRENTLY уходят
+    // indexBuilder группами, а выражение, не дождавшееся блокировки, можно безопасно повторить само по себе
+    StatementRunner(Connection connection, int batchSize, int coalesceRows, ConcurrentIndexBuilder indexBuilder,
+                    LockTimeoutRetry lockRetry) {
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.coalesceRows = coalesceRows;
+        this.indexBuilder = indexBuilder;
+        this.lockRetry = lockRetry;
+    }
+
+    void execute(SqlStatementSplitter splitter) throws SQLException, IOException {
+        List<SqlStatement> batch = new ArrayList<>();
+        InsertCoalescer coalescer = coalesceRows > 1 ? new InsertCoalescer(coalesceRows) : null;
+        try (Statement stmt = connection.createStatement()) {
+            SqlStatement statement;
+            while ((statement = splitter.nextStatement()) != null) {
+                if (indexBuilder != null) {
+                    if (ConcurrentIndexBuilder.isConcurrentIndex(statement.getSql())) {
+                        // Всё, что было до индекса, должно выполниться раньше него
+                        drain(stmt, batch, coalescer);
+                        indexBuilder.add(statement);
+                        continue;
+                    }
+                    indexBuilder.flush();
+                }
+                if (coalescer != null) {
+                    if (coalescer.tryAdd(statement)) {
+                        continue;
+                    }
+                    // Группа закончилась: выполняем её и пробуем начать новую с текущего выражения
+                    SqlStatement coalesced = coalescer.drain();
+                    if (coalesced != null) {
+                        run(stmt, batch, coalesced);
+                    }
+                    if (coalescer.tryAdd(statement)) {
+                        continue;
+                    }
+                }
+                run(stmt, batch, statement);
+            }
+            if (indexBuilder != null) {
+                indexBuilder.flush();
+            }
+            drain(stmt, batch, coalescer);
+        }
+    }
+
+    private void drain(Statement stmt, List<SqlStatement> batch, InsertCoalescer coalescer) throws SQLException {
+        if (coalescer != null) {
+            SqlStatement coalesced = coalescer.drain();
+            if (coalesced != null) {
+                run(stmt, batch, coalesced);
+            }
+        }
+        flush(stmt, batch);
+    }
+
+    private void run(Statement stmt, List<SqlStatement> batch, SqlStatement statement) throws SQLException {
+        if (batchSize > 1 && isBatchable(statement.getSql())) {
+            stmt.addBatch(statement.getSql());
+            batch.add(statement);
+            if (batch.size() >= batchSize) {
+                flush(stmt, batch);
+            }
+            return;
+        }
+
+        // DDL и прочее не батчится - сначала отправляем накопленное, чтобы сохранить порядок
+        flush(stmt, batch);
+        while (true) {
+            try {
+                long rows = stmt.execute(statement.getSql()) ? 0 : Math.max(0, stmt.getUpdateCount());
+                MigrationMetrics.getInstance().addStatements(statement.getStatementCount(), rows);
+                if (lockRetry != null) {
+                    lockRetry.succeeded(connection);
+                }
+                return;
+            } catch (SQLException e) {
+                if (lockRetry == null || !lockRetry.shouldRetry(connection, e)) {
+                    throw statementFailed(statement, e);
+                }
+            }
+        }
+    }
+
+    private void flush(Statement stmt, List<SqlStatement> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            long rows = 0;
+            for (int updateCount : stmt.executeBatch()) {
+                // SUCCESS_NO_INFO (-2) - драйвер не сообщил число строк
+                rows += Math.max(0, updateCount);
+            }
+            long statements = 0;
+            for (SqlStatement statement : batch) {
+                statements += statement.getStatementCount();
+            }
+            MigrationMetrics.getInstance().addStatements(statements, rows);
+        } catch (BatchUpdateException e) {
+            throw statementFailed(batch.get(failedIndex(e, batch.size())), e);
+        } finally {
+            stmt.clearBatch();
+        }
+        batch.clear();
+    }
+
+    // Драйвер либо останавливается на ошибке (счётчиков меньше, чем выражений), либо помечает её EXECUTE_FAILED
+    private static int failedIndex(BatchUpdateException e, int batchSize) {
+        int[] updateCounts = e.getUpdateCounts();
+        if (updateCounts == null) {
+            return 0;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return Math.min(updateCounts.length, batchSize - 1);
+    }
+
+    private static SQLException statementFailed(SqlStatement statement, SQLException e) {
+        SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+        String position = statement.getStatementCount() > 1
+                ? "Statements #" + statement.getIndex() + "-#" + (statement.getIndex() + statement.getStatementCount() - 1)
+                + " (coalesced INSERT) starting at line " + statement.getLine()
+                : "Statement #" + statement.getIndex() + " at line " + statement.getLine();
+        return new SQLException(position + " failed: " + cause.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+    }
+
+    static boolean isBatchable(String sql) {
+        String keyword = firstKeyword(sql);
+        boolean dml = keyword.equals("INSERT") || keyword.equals("UPDATE") || keyword.equals("DELETE");
+        return dml && !RETURNING.matcher(sql).find();
+    }
+
+    static String firstKeyword(String sql) {
+        int i = skipLeadingComments(sql);
+        int start = i;
+        while (i < sql.length() && Character.isLetter(sql.charAt(i))) {
+            i++;
+        }
+        return sql.substring(start, i).toUpperCase(Locale.ROOT);
+    }
+
+    // Позиция первого символа после пробелов и комментариев в начале выражения
+    static int skipLeadingComments(String sql) {
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+}
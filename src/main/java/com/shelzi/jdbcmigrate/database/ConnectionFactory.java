@@ -1,11 +1,20 @@
 package com.shelzi.jdbcmigrate.database;
 
+import com.shelzi.jdbcmigrate.util.PropertiesUtil;
+
 import java.util.Properties;
 
 public class ConnectionFactory {
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    private static final long DEFAULT_POOL_TIMEOUT_MILLIS = 30_000;
+
     public static ConnectionCreator createConnectionCreator(Properties properties) { // also we can make it get only necessary properties
+        return createConnectionCreator(properties, properties.getProperty("db.url"));
+    }
+
+    // Для шардов: все настройки из properties, кроме адреса базы
+    public static ConnectionCreator createConnectionCreator(Properties properties, String url) {
         String driverClassName = properties.getProperty("db.driver");
-        String url = properties.getProperty("db.url");
         String user = properties.getProperty("db.user");
         String password = properties.getProperty("db.password");
 
@@ -13,9 +22,11 @@ public class ConnectionFactory {
             throw new IllegalArgumentException("Параметры подключения к базе данных заданы неверно.");
         }
 
+        ConnectionCreator connectionCreator;
         switch (driverClassName.toLowerCase()) {
             case "org.postgresql.driver":
-                return new PostgreSQLConnectionCreator(url, user, password);
+                connectionCreator = new PostgreSQLConnectionCreator(url, user, password);
+                break;
 //          case "h2 driver":
 //              return new H2ConnectionCreator(url, user, password);
 //          case "mysql driver":
@@ -23,5 +34,27 @@ public class ConnectionFactory {
             default:
                 throw new IllegalArgumentException("Unsupported database type: " + driverClassName);
         }
+
+        // db.pool.size > 0 включает пул с кешем подготовленных выражений
+        int poolSize = PropertiesUtil.getInt(properties, "db.pool.size", 0);
+        if (poolSize > 0) {
+            return new PooledConnectionCreator(connectionCreator, poolSize,
+                    PropertiesUtil.getInt(properties, "db.pool.statement.cache", DEFAULT_STATEMENT_CACHE_SIZE),
+                    PropertiesUtil.getLong(properties, "db.pool.timeout.millis", DEFAULT_POOL_TIMEOUT_MILLIS));
+        }
+        return connectionCreator;
+    }
+
+    // Пул меньше, чем нужно прогону, не падает сразу: рабочие ждут db.pool.timeout.millis и только потом
+    // получают ошибку. Проверяем заранее
+    public static void checkPoolCapacity(ConnectionCreator connectionCreator, int requiredConnections) {
+        if (connectionCreator instanceof PooledConnectionCreator) {
+            int poolSize = ((PooledConnectionCreator) connectionCreator).getMaxSize();
+            if (poolSize < requiredConnections) {
+                throw new IllegalArgumentException("db.pool.size=" + poolSize + " is too small: the run needs up to "
+                        + requiredConnections + " connections at once (main, lock, migration workers, index builders and backfill"
+                        + " workers). Increase db.pool.size or lower the parallelism.");
+            }
+        }
     }
 }
@@ -0,0 +1,301 @@
+package com.shelzi.jdbcmigrate.database;
+
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Небольшой пул поверх любого ConnectionCreator. close() у выданного соединения возвращает его в пул,
+// подготовленные выражения кешируются на физическом соединении и переживают close().
+public class PooledConnectionCreator implements ConnectionCreator, AutoCloseable {
+    private static final long VALIDATION_IDLE_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final ConnectionCreator delegate;
+    private final int statementCacheSize;
+    private final long borrowTimeoutMillis;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final List<PooledConnection> all = new ArrayList<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private boolean closed;
+
+    public PooledConnectionCreator(ConnectionCreator delegate, int maxSize, int statementCacheSize, long borrowTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.delegate = delegate;
+        this.statementCacheSize = statementCacheSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException, ClassNotFoundException {
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a pooled connection after " + borrowTimeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = pollIdle()) != null) {
+                if (pooled.validate()) {
+                    return pooled.lease();
+                }
+                discard(pooled);
+            }
+            pooled = new PooledConnection(delegate.getConnection());
+            synchronized (this) {
+                if (closed) {
+                    pooled.closePhysical();
+                    throw new SQLException("Connection pool is closed.");
+                }
+                all.add(pooled);
+            }
+            return pooled.lease();
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pooled : all) {
+            pooled.closePhysical();
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    private synchronized PooledConnection pollIdle() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        return idle.pollFirst();
+    }
+
+    private void release(PooledConnection pooled) {
+        boolean reusable = pooled.reset();
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.addFirst(pooled);
+            } else {
+                all.remove(pooled);
+                pooled.closePhysical();
+            }
+        }
+        permits.release();
+    }
+
+    private synchronized void discard(PooledConnection pooled) {
+        all.remove(pooled);
+        pooled.closePhysical();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statementCache;
+        private long releasedAt = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        boolean validate() {
+            // Проверяем только соединения, которые долго простаивали - иначе лишний round trip на каждую выдачу
+            if (System.currentTimeMillis() - releasedAt < VALIDATION_IDLE_MILLIS) {
+                return true;
+            }
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeaseHandler(this));
+        }
+
+        // Возвращаем соединение в исходное состояние; false - соединение больше не годится
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                releasedAt = System.currentTimeMillis();
+                return true;
+            } catch (SQLException e) {
+                logger.warn("Pooled connection can't be reset and will be closed: " + e.getMessage());
+                return false;
+            }
+        }
+
+        PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+            if (statementCacheSize <= 0) {
+                return (PreparedStatement) invoke(physical, method, args);
+            }
+            String key = args.length == 1 ? (String) args[0] : args[1] + ":" + args[0];
+            // Выражение забираем из кеша на время использования, чтобы два потока не делили одни параметры
+            PreparedStatement cached;
+            synchronized (statementCache) {
+                cached = statementCache.remove(key);
+            }
+            if (cached == null || cached.isClosed()) {
+                cached = (PreparedStatement) invoke(physical, method, args);
+            }
+            PreparedStatement statement = cached;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+                        private boolean returned;
+
+                        @Override
+                        public Object invoke(Object proxy, Method m, Object[] a) throws Throwable {
+                            if (m.getName().equals("close")) {
+                                if (!returned) {
+                                    returned = true;
+                                    giveBack(key, statement);
+                                }
+                                return null;
+                            }
+                            if (m.getName().equals("isClosed")) {
+                                return returned || statement.isClosed();
+                            }
+                            return PooledConnectionCreator.invoke(statement, m, a);
+                        }
+                    });
+        }
+
+        private void giveBack(String key, PreparedStatement statement) {
+            try {
+                // Выражение остаётся открытым в кеше, сбрасываем только параметры
+                statement.clearParameters();
+            } catch (SQLException e) {
+                closeStatement(statement);
+                return;
+            }
+            PreparedStatement displaced;
+            synchronized (statementCache) {
+                displaced = statementCache.put(key, statement);
+            }
+            if (displaced != null && displaced != statement) {
+                closeStatement(displaced);
+            }
+        }
+
+        void closePhysical() {
+            synchronized (statementCache) {
+                for (PreparedStatement statement : statementCache.values()) {
+                    closeStatement(statement);
+                }
+                statementCache.clear();
+            }
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close pooled connection: " + e.getMessage());
+            }
+        }
+
+        private void closeStatement(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close cached statement: " + e.getMessage());
+            }
+        }
+    }
+
+    private final class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean returned;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(pooled);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            // Кешируем только prepareStatement(sql) и prepareStatement(sql, autoGeneratedKeys)
+            if (name.equals("prepareStatement") && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer))) {
+                return pooled.prepare(method, args);
+            }
+            return PooledConnectionCreator.invoke(pooled.physical, method, args);
+        }
+    }
+}
@@ -5,6 +5,9 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class PostgreSQLConnectionCreator implements ConnectionCreator {
+    private static final String DRIVER_CLASS_NAME = "org.postgresql.Driver";
+    private static volatile boolean driverLoaded;
+
     private final String url;
     private final String user;
     private final String password;
@@ -17,8 +20,11 @@ public class PostgreSQLConnectionCreator implements ConnectionCreator {
 
     @Override
     public Connection getConnection() throws SQLException, ClassNotFoundException {
-        String driverClassName = "org.postgresql.Driver";
-        Class.forName(driverClassName);
+        // Драйвер регистрируется один раз, а не при каждом соединении
+        if (!driverLoaded) {
+            Class.forName(DRIVER_CLASS_NAME);
+            driverLoaded = true;
+        }
         return DriverManager.getConnection(url, user, password);
     }
 }
@@ -0,0 +1,102 @@
+package com.shelzi.jdbcmigrate.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// lock_timeout и statement_timeout сессии на время одной миграции. Перед миграцией запоминаем текущие
+// значения и ставим свои, после - возвращаем прежние. 0 - таймаут не трогаем.
+public class SessionTimeouts {
+    private final Connection connection;
+    private final List<String> restoreStatements = new ArrayList<>();
+
+    private SessionTimeouts(Connection connection) {
+        this.connection = connection;
+    }
+
+    // false - в этой базе таймауты не поддерживаются, ничего не изменено
+    public static boolean isSupported(SqlDialect dialect) {
+        return dialect != SqlDialect.GENERIC;
+    }
+
+    public static SessionTimeouts apply(Connection connection, SqlDialect dialect, long lockTimeoutMillis,
+                                        long statementTimeoutMillis) throws SQLException {
+        SessionTimeouts timeouts = new SessionTimeouts(connection);
+        if (lockTimeoutMillis > 0) {
+            switch (dialect) {
+                case POSTGRESQL -> timeouts.set("current_setting('lock_timeout')", "SET lock_timeout = '%s'",
+                        lockTimeoutMillis + "ms");
+                // InnoDB считает в секундах: блокировки строк и метаданных (ALTER TABLE) отдельно
+                case MYSQL -> {
+                    String seconds = String.valueOf(Math.max(1, (lockTimeoutMillis + 999) / 1000));
+                    timeouts.set("@@SESSION.innodb_lock_wait_timeout", "SET SESSION innodb_lock_wait_timeout = %s", seconds);
+                    timeouts.set("@@SESSION.lock_wait_timeout", "SET SESSION lock_wait_timeout = %s", seconds);
+                }
+                case H2 -> timeouts.set("LOCK_TIMEOUT()", "SET LOCK_TIMEOUT %s", String.valueOf(lockTimeoutMillis));
+                default -> {
+                }
+            }
+        }
+        if (statementTimeoutMillis > 0) {
+            switch (dialect) {
+                case POSTGRESQL -> timeouts.set("current_setting('statement_timeout')", "SET statement_timeout = '%s'",
+                        statementTimeoutMillis + "ms");
+                // В MySQL ограничивается только SELECT
+                case MYSQL -> timeouts.set("@@SESSION.max_execution_time", "SET SESSION max_execution_time = %s",
+                        String.valueOf(statementTimeoutMillis));
+                case H2 -> timeouts.set("(SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS "
+                        + "WHERE SETTING_NAME = 'QUERY_TIMEOUT')", "SET QUERY_TIMEOUT %s", String.valueOf(statementTimeoutMillis));
+                default -> {
+                }
+            }
+        }
+        return timeouts;
+    }
+
+    // Ошибка из-за того, что блокировку не дождались за lock_timeout; statement_timeout сюда не относится
+    public static boolean isLockTimeout(SQLException e, SqlDialect dialect) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                for (SQLException next = sqlException; next != null; next = next.getNextException()) {
+                    if (isLockTimeoutCode(next, dialect)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLockTimeoutCode(SQLException e, SqlDialect dialect) {
+        return switch (dialect) {
+            case POSTGRESQL -> "55P03".equals(e.getSQLState());
+            case MYSQL -> e.getErrorCode() == 1205;
+            case H2 -> e.getErrorCode() == 50200;
+            default -> "55P03".equals(e.getSQLState());
+        };
+    }
+
+    public void restore() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : restoreStatements) {
+                stmt.execute(sql);
+            }
+        }
+        restoreStatements.clear();
+    }
+
+    private void set(String currentValueExpression, String setTemplate, String value) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT " + currentValueExpression)) {
+                if (rs.next() && rs.getString(1) != null) {
+                    restoreStatements.add(String.format(setTemplate, rs.getString(1).replace("'", "''")));
+                }
+            }
+            stmt.execute(String.format(setTemplate, value));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.shelzi.jdbcmigrate.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public enum SqlDialect {
+    POSTGRESQL(true, true, false, true),
+    MYSQL(false, false, true, false),
+    H2(false, true, false, false),
+    GENERIC(false, true, false, false);
+
+    private final boolean dollarQuoting;
+    private final boolean nestedComments;
+    private final boolean mysqlSyntax;
+    private final boolean transactionalDdl;
+
+    SqlDialect(boolean dollarQuoting, boolean nestedComments, boolean mysqlSyntax, boolean transactionalDdl) {
+        this.dollarQuoting = dollarQuoting;
+        this.nestedComments = nestedComments;
+        this.mysqlSyntax = mysqlSyntax;
+        this.transactionalDdl = transactionalDdl;
+    }
+
+    public static SqlDialect fromConnection(Connection connection) throws SQLException {
+        String dbProductName = connection.getMetaData().getDatabaseProductName().toLowerCase();
+        if (dbProductName.contains("postgresql")) {
+            return POSTGRESQL;
+        } else if (dbProductName.contains("mysql") || dbProductName.contains("mariadb")) {
+            return MYSQL;
+        } else if (dbProductName.contains("h2")) {
+            return H2;
+        }
+        return GENERIC;
+    }
+
+    // $tag$ ... $tag$ строки
+    public boolean supportsDollarQuoting() {
+        return dollarQuoting;
+    }
+
+    // /* /* */ */ - вложенные блочные комментарии
+    public boolean supportsNestedComments() {
+        return nestedComments;
+    }
+
+    // Обратный слеш в строках, `идентификаторы` и # комментарии
+    public boolean isMysqlSyntax() {
+        return mysqlSyntax;
+    }
+
+    // DDL откатывается вместе с транзакцией (в MySQL и H2 DDL делает неявный commit)
+    public boolean supportsTransactionalDdl() {
+        return transactionalDdl;
+    }
+}
@@ -0,0 +1,21 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.Locale;
+
+public enum LockType {
+    // advisory для PostgreSQL, таблица migration_lock для остальных баз
+    AUTO,
+    TABLE,
+    ADVISORY;
+
+    public static LockType fromProperty(String value) {
+        if (value == null || value.isBlank()) {
+            return AUTO;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported lock strategy: " + value);
+        }
+    }
+}
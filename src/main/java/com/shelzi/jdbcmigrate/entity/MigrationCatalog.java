@@ -0,0 +1,78 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Неизменяемый набор миграций одного запуска, отсортированный по версии один раз.
+// Запросы по диапазону версий - бинарный поиск по уже разобранным ключам, без разбора имён файлов.
+public final class MigrationCatalog {
+    private final List<ResolvedMigration> migrations;
+
+    private MigrationCatalog(List<ResolvedMigration> migrations) {
+        this.migrations = migrations;
+    }
+
+    // Список из MigrationResolver уже отсортирован - тогда только проверяем порядок за один проход
+    public static MigrationCatalog of(List<ResolvedMigration> migrations) {
+        List<ResolvedMigration> sorted = new ArrayList<>(migrations);
+        if (!isSorted(sorted)) {
+            sorted.sort(Comparator.comparing(ResolvedMigration::getVersion));
+        }
+        return new MigrationCatalog(Collections.unmodifiableList(sorted));
+    }
+
+    public int size() {
+        return migrations.size();
+    }
+
+    public ResolvedMigration get(int index) {
+        return migrations.get(index);
+    }
+
+    public List<ResolvedMigration> getMigrations() {
+        return migrations;
+    }
+
+    // Сколько миграций с версией <= version, т.е. индекс первой более новой
+    public int countUpTo(MigrationVersion version) {
+        int low = 0;
+        int high = migrations.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (migrations.get(middle).getVersion().compareTo(version) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public boolean contains(MigrationVersion version) {
+        int index = countUpTo(version) - 1;
+        return index >= 0 && migrations.get(index).getVersion().equals(version);
+    }
+
+    // Миграции до version включительно
+    public List<ResolvedMigration> upTo(MigrationVersion version) {
+        return migrations.subList(0, countUpTo(version));
+    }
+
+    // Миграции новее from и не новее to; null - без ограничения с этой стороны
+    public List<ResolvedMigration> between(MigrationVersion from, MigrationVersion to) {
+        int start = from != null ? countUpTo(from) : 0;
+        int end = to != null ? countUpTo(to) : migrations.size();
+        return start < end ? migrations.subList(start, end) : List.of();
+    }
+
+    private static boolean isSorted(List<ResolvedMigration> migrations) {
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i - 1).getVersion().compareTo(migrations.get(i).getVersion()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
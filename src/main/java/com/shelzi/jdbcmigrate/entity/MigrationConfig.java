@@ -0,0 +1,410 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import com.shelzi.jdbcmigrate.util.PropertiesUtil;
+
+import java.util.Properties;
+
+public class MigrationConfig {
+    private String migrationDirectory;
+    private int scanThreads = Runtime.getRuntime().availableProcessors();
+    private String checksumCacheFile;
+    private boolean forceRehash;
+    private long inlineMaxBytes = 4L * 1024 * 1024;
+    private int batchSize;
+    private int insertCoalesceRows;
+    private TransactionMode transactionMode = TransactionMode.AUTOCOMMIT;
+    private int transactionGroupSize = 50;
+    private int parallelism = 1;
+    private int targetConcurrency = 8;
+    private boolean continueOnError = true;
+    private int targetRetries;
+    private long targetRetryDelayMillis = 1000;
+    private String failedTargetsFile;
+    private boolean retryFailedTargetsOnly;
+    private LockType lockType = LockType.AUTO;
+    private long lockWaitMillis;
+    private long lockExpiryMillis = 5 * 60 * 1000;
+    private boolean followLeader;
+    private long followTimeoutMillis = 10 * 60 * 1000;
+    private int historyFetchSize = 1000;
+    private String historySnapshotDirectory;
+    private boolean metricsJmxEnabled = true;
+    private String metricsFile;
+    private String upToVersion;
+    private boolean migrationIndexEnabled = true;
+    private long watchDebounceMillis = 500;
+    private int indexBuildParallelism = 1;
+    private long lockTimeoutMillis;
+    private long statementTimeoutMillis;
+    private int lockTimeoutRetries = 3;
+    private long lockTimeoutRetryDelayMillis = 1000;
+
+    public MigrationConfig(String migrationDirectory) {
+        this.migrationDirectory = migrationDirectory;
+    }
+
+    public static MigrationConfig fromProperties(Properties properties) {
+        MigrationConfig config = new MigrationConfig(properties.getProperty("migration.directory"));
+        config.setScanThreads(PropertiesUtil.getInt(properties, "migration.scan.threads", config.getScanThreads()));
+        config.setChecksumCacheFile(properties.getProperty("migration.checksum.cache"));
+        config.setForceRehash(PropertiesUtil.getBoolean(properties, "migration.checksum.rehash", false));
+        config.setInlineMaxBytes(PropertiesUtil.getLong(properties, "migration.inline.max.bytes", config.getInlineMaxBytes()));
+        config.setBatchSize(PropertiesUtil.getInt(properties, "migration.batch.size", 0));
+        config.setInsertCoalesceRows(PropertiesUtil.getInt(properties, "migration.insert.coalesce.rows", 0));
+        config.setTransactionMode(TransactionMode.fromProperty(properties.getProperty("migration.transaction.mode")));
+        config.setTransactionGroupSize(PropertiesUtil.getInt(properties, "migration.transaction.group.size",
+                config.getTransactionGroupSize()));
+        config.setParallelism(PropertiesUtil.getInt(properties, "migration.parallelism", 1));
+        config.setTargetConcurrency(PropertiesUtil.getInt(properties, "migration.targets.concurrency",
+                config.getTargetConcurrency()));
+        config.setContinueOnError(PropertiesUtil.getBoolean(properties, "migration.targets.continue.on.error",
+                config.isContinueOnError()));
+        config.setTargetRetries(PropertiesUtil.getInt(properties, "migration.targets.retries", 0));
+        config.setTargetRetryDelayMillis(PropertiesUtil.getLong(properties, "migration.targets.retry.delay.millis",
+                config.getTargetRetryDelayMillis()));
+        config.setFailedTargetsFile(properties.getProperty("migration.targets.failed.file"));
+        config.setRetryFailedTargetsOnly(PropertiesUtil.getBoolean(properties, "migration.targets.retry.failed.only", false));
+        config.setLockType(LockType.fromProperty(properties.getProperty("migration.lock.strategy")));
+        config.setLockWaitMillis(PropertiesUtil.getLong(properties, "migration.lock.wait.millis", 0));
+        config.setLockExpiryMillis(PropertiesUtil.getLong(properties, "migration.lock.expiry.millis",
+                config.getLockExpiryMillis()));
+        config.setFollowLeader(PropertiesUtil.getBoolean(properties, "migration.lock.follow", false));
+        config.setFollowTimeoutMillis(PropertiesUtil.getLong(properties, "migration.lock.follow.timeout.millis",
+                config.getFollowTimeoutMillis()));
+        config.setHistoryFetchSize(PropertiesUtil.getInt(properties, "migration.history.fetch.size",
+                config.getHistoryFetchSize()));
+        config.setHistorySnapshotDirectory(properties.getProperty("migration.history.snapshot.dir"));
+        config.setMetricsJmxEnabled(PropertiesUtil.getBoolean(properties, "migration.metrics.jmx", true));
+        config.setMetricsFile(properties.getProperty("migration.metrics.file"));
+        config.setUpToVersion(properties.getProperty("migration.up.to.version"));
+        config.setMigrationIndexEnabled(PropertiesUtil.getBoolean(properties, "migration.index.enabled", true));
+        config.setWatchDebounceMillis(PropertiesUtil.getLong(properties, "migration.watch.debounce.millis",
+                config.getWatchDebounceMillis()));
+        config.setIndexBuildParallelism(PropertiesUtil.getInt(properties, "migration.index.build.parallelism",
+                config.getIndexBuildParallelism()));
+        config.setLockTimeoutMillis(PropertiesUtil.getLong(properties, "migration.session.lock.timeout.millis", 0));
+        config.setStatementTimeoutMillis(PropertiesUtil.getLong(properties, "migration.session.statement.timeout.millis", 0));
+        config.setLockTimeoutRetries(PropertiesUtil.getInt(properties, "migration.session.lock.timeout.retries",
+                config.getLockTimeoutRetries()));
+        config.setLockTimeoutRetryDelayMillis(PropertiesUtil.getLong(properties,
+                "migration.session.lock.timeout.retry.delay.millis", config.getLockTimeoutRetryDelayMillis()));
+        return config;
+    }
+
+    public String getMigrationDirectory() {
+        return migrationDirectory;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public String getChecksumCacheFile() {
+        return checksumCacheFile;
+    }
+
+    public boolean isForceRehash() {
+        return forceRehash;
+    }
+
+    public long getInlineMaxBytes() {
+        return inlineMaxBytes;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getInsertCoalesceRows() {
+        return insertCoalesceRows;
+    }
+
+    public TransactionMode getTransactionMode() {
+        return transactionMode;
+    }
+
+    public int getTransactionGroupSize() {
+        return transactionGroupSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getTargetConcurrency() {
+        return targetConcurrency;
+    }
+
+    public boolean isContinueOnError() {
+        return continueOnError;
+    }
+
+    public int getTargetRetries() {
+        return targetRetries;
+    }
+
+    public long getTargetRetryDelayMillis() {
+        return targetRetryDelayMillis;
+    }
+
+    public String getFailedTargetsFile() {
+        return failedTargetsFile;
+    }
+
+    public boolean isRetryFailedTargetsOnly() {
+        return retryFailedTargetsOnly;
+    }
+
+    public LockType getLockType() {
+        return lockType;
+    }
+
+    public long getLockWaitMillis() {
+        return lockWaitMillis;
+    }
+
+    public long getLockExpiryMillis() {
+        return lockExpiryMillis;
+    }
+
+    public boolean isFollowLeader() {
+        return followLeader;
+    }
+
+    public long getFollowTimeoutMillis() {
+        return followTimeoutMillis;
+    }
+
+    public int getHistoryFetchSize() {
+        return historyFetchSize;
+    }
+
+    public String getHistorySnapshotDirectory() {
+        return historySnapshotDirectory;
+    }
+
+    public boolean isMetricsJmxEnabled() {
+        return metricsJmxEnabled;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public String getUpToVersion() {
+        return upToVersion;
+    }
+
+    public boolean isMigrationIndexEnabled() {
+        return migrationIndexEnabled;
+    }
+
+    public long getWatchDebounceMillis() {
+        return watchDebounceMillis;
+    }
+
+    public int getIndexBuildParallelism() {
+        return indexBuildParallelism;
+    }
+
+    // Сколько соединений один прогон держит одновременно: основное, блокировка,
+    // рабочие migration.parallelism и сборщики индексов migration.index.build.parallelism
+    public int requiredConnections() {
+        int required = 2;
+        if (parallelism > 1) {
+            required += parallelism;
+        }
+        if (indexBuildParallelism > 1) {
+            required += indexBuildParallelism;
+        }
+        return required;
+    }
+
+    public long getLockTimeoutMillis() {
+        return lockTimeoutMillis;
+    }
+
+    public long getStatementTimeoutMillis() {
+        return statementTimeoutMillis;
+    }
+
+    public int getLockTimeoutRetries() {
+        return lockTimeoutRetries;
+    }
+
+    public long getLockTimeoutRetryDelayMillis() {
+        return lockTimeoutRetryDelayMillis;
+    }
+
+    public void setMigrationDirectory(String migrationDirectory) {
+        this.migrationDirectory = migrationDirectory;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = scanThreads;
+    }
+
+    public void setChecksumCacheFile(String checksumCacheFile) {
+        this.checksumCacheFile = checksumCacheFile;
+    }
+
+    public void setForceRehash(boolean forceRehash) {
+        this.forceRehash = forceRehash;
+    }
+
+    public void setInlineMaxBytes(long inlineMaxBytes) {
+        this.inlineMaxBytes = inlineMaxBytes;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setInsertCoalesceRows(int insertCoalesceRows) {
+        this.insertCoalesceRows = insertCoalesceRows;
+    }
+
+    public void setTransactionMode(TransactionMode transactionMode) {
+        this.transactionMode = transactionMode;
+    }
+
+    public void setTransactionGroupSize(int transactionGroupSize) {
+        this.transactionGroupSize = transactionGroupSize;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setTargetConcurrency(int targetConcurrency) {
+        this.targetConcurrency = targetConcurrency;
+    }
+
+    public void setContinueOnError(boolean continueOnError) {
+        this.continueOnError = continueOnError;
+    }
+
+    public void setTargetRetries(int targetRetries) {
+        this.targetRetries = targetRetries;
+    }
+
+    public void setTargetRetryDelayMillis(long targetRetryDelayMillis) {
+        this.targetRetryDelayMillis = targetRetryDelayMillis;
+    }
+
+    public void setFailedTargetsFile(String failedTargetsFile) {
+        this.failedTargetsFile = failedTargetsFile;
+    }
+
+    public void setRetryFailedTargetsOnly(boolean retryFailedTargetsOnly) {
+        this.retryFailedTargetsOnly = retryFailedTargetsOnly;
+    }
+
+    public void setLockType(LockType lockType) {
+        this.lockType = lockType;
+    }
+
+    public void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    public void setLockExpiryMillis(long lockExpiryMillis) {
+        this.lockExpiryMillis = lockExpiryMillis;
+    }
+
+    public void setFollowLeader(boolean followLeader) {
+        this.followLeader = followLeader;
+    }
+
+    public void setFollowTimeoutMillis(long followTimeoutMillis) {
+        this.followTimeoutMillis = followTimeoutMillis;
+    }
+
+    public void setHistoryFetchSize(int historyFetchSize) {
+        this.historyFetchSize = historyFetchSize;
+    }
+
+    public void setHistorySnapshotDirectory(String historySnapshotDirectory) {
+        this.historySnapshotDirectory = historySnapshotDirectory;
+    }
+
+    public void setMetricsJmxEnabled(boolean metricsJmxEnabled) {
+        this.metricsJmxEnabled = metricsJmxEnabled;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    // null или пустая строка - применяем всё
+    public void setUpToVersion(String upToVersion) {
+        this.upToVersion = upToVersion == null || upToVersion.isBlank() ? null : upToVersion.strip();
+    }
+
+    public void setMigrationIndexEnabled(boolean migrationIndexEnabled) {
+        this.migrationIndexEnabled = migrationIndexEnabled;
+    }
+
+    public void setWatchDebounceMillis(long watchDebounceMillis) {
+        this.watchDebounceMillis = watchDebounceMillis;
+    }
+
+    public void setIndexBuildParallelism(int indexBuildParallelism) {
+        this.indexBuildParallelism = indexBuildParallelism;
+    }
+
+    public void setLockTimeoutMillis(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    public void setStatementTimeoutMillis(long statementTimeoutMillis) {
+        this.statementTimeoutMillis = statementTimeoutMillis;
+    }
+
+    public void setLockTimeoutRetries(int lockTimeoutRetries) {
+        this.lockTimeoutRetries = lockTimeoutRetries;
+    }
+
+    public void setLockTimeoutRetryDelayMillis(long lockTimeoutRetryDelayMillis) {
+        this.lockTimeoutRetryDelayMillis = lockTimeoutRetryDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationConfig{" +
+                "migrationDirectory='" + migrationDirectory + '\'' +
+                ", scanThreads=" + scanThreads +
+                ", checksumCacheFile='" + checksumCacheFile + '\'' +
+                ", forceRehash=" + forceRehash +
+                ", inlineMaxBytes=" + inlineMaxBytes +
+                ", batchSize=" + batchSize +
+                ", insertCoalesceRows=" + insertCoalesceRows +
+                ", transactionMode=" + transactionMode +
+                ", transactionGroupSize=" + transactionGroupSize +
+                ", parallelism=" + parallelism +
+                ", targetConcurrency=" + targetConcurrency +
+                ", continueOnError=" + continueOnError +
+                ", targetRetries=" + targetRetries +
+                ", targetRetryDelayMillis=" + targetRetryDelayMillis +
+                ", failedTargetsFile='" + failedTargetsFile + '\'' +
+                ", retryFailedTargetsOnly=" + retryFailedTargetsOnly +
+                ", lockType=" + lockType +
+                ", lockWaitMillis=" + lockWaitMillis +
+                ", lockExpiryMillis=" + lockExpiryMillis +
+                ", followLeader=" + followLeader +
+                ", followTimeoutMillis=" + followTimeoutMillis +
+                ", historyFetchSize=" + historyFetchSize +
+                ", historySnapshotDirectory='" + historySnapshotDirectory + '\'' +
+                ", metricsJmxEnabled=" + metricsJmxEnabled +
+                ", metricsFile='" + metricsFile + '\'' +
+                ", upToVersion='" + upToVersion + '\'' +
+                ", migrationIndexEnabled=" + migrationIndexEnabled +
+                ", watchDebounceMillis=" + watchDebounceMillis +
+                ", indexBuildParallelism=" + indexBuildParallelism +
+                ", lockTimeoutMillis=" + lockTimeoutMillis +
+                ", statementTimeoutMillis=" + statementTimeoutMillis +
+                ", lockTimeoutRetries=" + lockTimeoutRetries +
+                ", lockTimeoutRetryDelayMillis=" + lockTimeoutRetryDelayMillis +
+                '}';
+    }
+}
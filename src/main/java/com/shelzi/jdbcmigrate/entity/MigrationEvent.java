@@ -0,0 +1,72 @@
+package com.shelzi.jdbcmigrate.entity;
+
+// Событие хода миграции для встраивающего приложения (см. MigrationListener)
+public class MigrationEvent {
+    public enum Type {
+        LOCKED,
+        // count - сколько миграций предстоит применить
+        DISCOVERED,
+        MIGRATION_STARTED,
+        MIGRATION_FINISHED,
+        MIGRATION_FAILED,
+        // Завершение всего прогона, после них событий больше не будет
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final Type type;
+    private final String migration;
+    private final int count;
+    private final long durationMillis;
+    private final String errorMessage;
+    private final long timestamp = System.currentTimeMillis();
+
+    public MigrationEvent(Type type, String migration, int count, long durationMillis, String errorMessage) {
+        this.type = type;
+        this.migration = migration;
+        this.count = count;
+        this.durationMillis = durationMillis;
+        this.errorMessage = errorMessage;
+    }
+
+    public boolean isTerminal() {
+        return type == Type.COMPLETED || type == Type.FAILED || type == Type.CANCELLED;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getMigration() {
+        return migration;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationEvent{" +
+                "type=" + type +
+                ", migration='" + migration + '\'' +
+                ", count=" + count +
+                ", durationMillis=" + durationMillis +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
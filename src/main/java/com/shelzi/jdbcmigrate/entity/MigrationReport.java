@@ -0,0 +1,38 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MigrationReport {
+    private final List<MigrationTargetResult> results = Collections.synchronizedList(new ArrayList<>());
+
+    public void add(MigrationTargetResult result) {
+        results.add(result);
+    }
+
+    public List<MigrationTargetResult> getResults() {
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    public long count(MigrationTargetResult.Status status) {
+        synchronized (results) {
+            return results.stream().filter(result -> result.getStatus() == status).count();
+        }
+    }
+
+    public boolean isSuccessful() {
+        return count(MigrationTargetResult.Status.FAILED) == 0 && count(MigrationTargetResult.Status.SKIPPED) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationReport{" +
+                "succeeded=" + count(MigrationTargetResult.Status.SUCCESS) +
+                ", failed=" + count(MigrationTargetResult.Status.FAILED) +
+                ", skipped=" + count(MigrationTargetResult.Status.SKIPPED) +
+                '}';
+    }
+}
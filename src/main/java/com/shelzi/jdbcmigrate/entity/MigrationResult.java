@@ -0,0 +1,57 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Итог асинхронного прогона: применённые миграции с временем выполнения в порядке применения
+public class MigrationResult {
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        CANCELLED
+    }
+
+    private final Status status;
+    private final Map<String, Long> appliedMigrations;
+    private final String errorMessage;
+    private final long durationMillis;
+
+    public MigrationResult(Status status, Map<String, Long> appliedMigrations, String errorMessage, long durationMillis) {
+        this.status = status;
+        this.appliedMigrations = Collections.unmodifiableMap(new LinkedHashMap<>(appliedMigrations));
+        this.errorMessage = errorMessage;
+        this.durationMillis = durationMillis;
+    }
+
+    public boolean isSuccessful() {
+        return status == Status.SUCCESS;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // Имя файла -> время выполнения, мс
+    public Map<String, Long> getAppliedMigrations() {
+        return appliedMigrations;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationResult{" +
+                "status=" + status +
+                ", appliedMigrations=" + appliedMigrations.size() +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import com.shelzi.jdbcmigrate.database.ConnectionCreator;
+
+import java.util.Objects;
+
+// Одна база/схема, к которой применяется общий набор миграций
+public class MigrationTarget {
+    private final String name;
+    private final ConnectionCreator connectionCreator;
+    private final String schema;
+    // Собственный ConnectionCreator цели (шард) закрывается сразу после неё, общий - вызывающим кодом
+    private final boolean ownsConnectionCreator;
+
+    public MigrationTarget(String name, ConnectionCreator connectionCreator, String schema) {
+        this(name, connectionCreator, schema, false);
+    }
+
+    public MigrationTarget(String name, ConnectionCreator connectionCreator, String schema, boolean ownsConnectionCreator) {
+        this.name = name;
+        this.connectionCreator = connectionCreator;
+        this.schema = schema;
+        this.ownsConnectionCreator = ownsConnectionCreator;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ConnectionCreator getConnectionCreator() {
+        return connectionCreator;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public boolean isOwnsConnectionCreator() {
+        return ownsConnectionCreator;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        MigrationTarget that = (MigrationTarget) o;
+        return Objects.equals(name, that.name) && Objects.equals(schema, that.schema);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, schema);
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationTarget{" +
+                "name='" + name + '\'' +
+                ", schema='" + schema + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package com.shelzi.jdbcmigrate.entity;
+
+public class MigrationTargetResult {
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        SKIPPED
+    }
+
+    private final String targetName;
+    private final Status status;
+    private final String errorMessage;
+    private final long durationMillis;
+    private final int attempts;
+
+    public MigrationTargetResult(String targetName, Status status, String errorMessage, long durationMillis) {
+        this(targetName, status, errorMessage, durationMillis, status == Status.SKIPPED ? 0 : 1);
+    }
+
+    public MigrationTargetResult(String targetName, Status status, String errorMessage, long durationMillis, int attempts) {
+        this.targetName = targetName;
+        this.status = status;
+        this.errorMessage = errorMessage;
+        this.durationMillis = durationMillis;
+        this.attempts = attempts;
+    }
+
+    public String getTargetName() {
+        return targetName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationTargetResult{" +
+                "targetName='" + targetName + '\'' +
+                ", status=" + status +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", durationMillis=" + durationMillis +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
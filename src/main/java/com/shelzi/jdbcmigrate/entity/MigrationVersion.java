@@ -0,0 +1,88 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.Arrays;
+
+// Разобранная один раз версия миграции: "V1_10__name.sql" -> [1, 10].
+// Нули в конце отбрасываются, поэтому V1 и V1_0 равны; сравнение не создаёт объектов.
+public final class MigrationVersion implements Comparable<MigrationVersion> {
+    private static final int[] EMPTY = new int[0];
+
+    private final int[] parts;
+
+    private MigrationVersion(int[] parts) {
+        this.parts = parts;
+    }
+
+    // Принимает имя файла ("V1_2__a.sql"), префикс ("V1_2") или просто версию ("1.2").
+    // Разделители - '.', '_' и '-'; нечисловая часть считается нулём
+    public static MigrationVersion parse(String fileNameOrVersion) {
+        int start = !fileNameOrVersion.isEmpty() && Character.toUpperCase(fileNameOrVersion.charAt(0)) == 'V' ? 1 : 0;
+        int end = fileNameOrVersion.indexOf("__", start);
+        if (end < 0) {
+            end = fileNameOrVersion.length();
+        }
+
+        int[] parts = new int[4];
+        int count = 0;
+        long value = 0;
+        boolean numeric = true;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? fileNameOrVersion.charAt(i) : '.';
+            if (c == '.' || c == '_' || c == '-') {
+                if (count == parts.length) {
+                    parts = Arrays.copyOf(parts, count * 2);
+                }
+                parts[count++] = numeric && value <= Integer.MAX_VALUE ? (int) value : 0;
+                value = 0;
+                numeric = true;
+            } else if (c >= '0' && c <= '9' && numeric) {
+                value = Math.min(value * 10 + (c - '0'), Integer.MAX_VALUE + 1L);
+            } else {
+                numeric = false;
+            }
+        }
+        while (count > 0 && parts[count - 1] == 0) {
+            count--;
+        }
+        return new MigrationVersion(count == 0 ? EMPTY : Arrays.copyOf(parts, count));
+    }
+
+    @Override
+    public int compareTo(MigrationVersion other) {
+        int length = Math.max(parts.length, other.parts.length);
+        for (int i = 0; i < length; i++) {
+            int v1 = i < parts.length ? parts[i] : 0;
+            int v2 = i < other.parts.length ? other.parts[i] : 0;
+            if (v1 != v2) {
+                return Integer.compare(v1, v2);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(parts, ((MigrationVersion) o).parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(parts);
+    }
+
+    @Override
+    public String toString() {
+        if (parts.length == 0) {
+            return "0";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                builder.append('.');
+            }
+            builder.append(parts[i]);
+        }
+        return builder.toString();
+    }
+}
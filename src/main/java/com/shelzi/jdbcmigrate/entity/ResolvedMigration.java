@@ -0,0 +1,60 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+public class ResolvedMigration {
+    private final Path path;
+    private final String fileName;
+    private final MigrationVersion version;
+    private final byte[] content;
+    private final String checksum;
+
+    public ResolvedMigration(Path path, byte[] content, String checksum) {
+        this.path = path;
+        this.fileName = path.getFileName().toString();
+        this.version = MigrationVersion.parse(fileName);
+        this.content = content;
+        this.checksum = checksum;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public MigrationVersion getVersion() {
+        return version;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        ResolvedMigration that = (ResolvedMigration) o;
+        return Objects.equals(path, that.path) && Objects.equals(checksum, that.checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, checksum);
+    }
+
+    @Override
+    public String toString() {
+        return "ResolvedMigration{" +
+                "path=" + path +
+                ", checksum='" + checksum + '\'' +
+                '}';
+    }
+}
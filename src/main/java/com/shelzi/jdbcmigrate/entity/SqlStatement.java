@@ -0,0 +1,61 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.Objects;
+
+public class SqlStatement {
+    private final String sql;
+    private final int index;
+    private final int line;
+    private final int statementCount;
+
+    public SqlStatement(String sql, int index, int line) {
+        this(sql, index, line, 1);
+    }
+
+    public SqlStatement(String sql, int index, int line, int statementCount) {
+        this.sql = sql;
+        this.index = index;
+        this.line = line;
+        this.statementCount = statementCount;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    // Сколько исходных выражений файла объединено в это (больше 1 после склейки INSERT)
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        SqlStatement that = (SqlStatement) o;
+        return index == that.index && line == that.line && statementCount == that.statementCount
+                && Objects.equals(sql, that.sql);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sql, index, line, statementCount);
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStatement{" +
+                "index=" + index +
+                ", line=" + line +
+                ", statementCount=" + statementCount +
+                ", sql='" + sql + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,22 @@
+package com.shelzi.jdbcmigrate.entity;
+
+import java.util.Locale;
+
+public enum TransactionMode {
+    AUTOCOMMIT,
+    PER_MIGRATION,
+    PER_RUN,
+    GROUP;
+
+    // "per-migration", "per_run", "GROUP" и т.п.
+    public static TransactionMode fromProperty(String value) {
+        if (value == null || value.isBlank()) {
+            return AUTOCOMMIT;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported transaction mode: " + value);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.shelzi.jdbcmigrate.exception;
+
+public class MigrationCancelledException extends MigrationExecutorException {
+  public MigrationCancelledException() {
+    super();
+  }
+
+  public MigrationCancelledException(String message) {
+    super(message);
+  }
+
+  public MigrationCancelledException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public MigrationCancelledException(Throwable cause) {
+    super(cause);
+  }
+}
@@ -0,0 +1,46 @@
+package com.shelzi.jdbcmigrate.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Имена целей, упавших в прошлом запуске: по одному на строку
+public class FailedTargetsFile {
+
+    public static Set<String> read(Path file) throws IOException {
+        Set<String> names = new LinkedHashSet<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    names.add(line.strip());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Прошлый запуск прошёл без ошибок
+        }
+        return names;
+    }
+
+    // Пустой список - удаляем файл, чтобы следующий запуск шёл по всем целям
+    public static void write(Path file, Collection<String> names) throws IOException {
+        if (names.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, names, StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -1,72 +1,177 @@
 package com.shelzi.jdbcmigrate.io;
 
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.MigrationVersion;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
 import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class MigrationFileReader {
+    private static final Pattern MIGRATION_FILE = Pattern.compile("^V[\\d._]+__.+\\.(sql|csv)$");
+    private static final Pattern HEADER_DIRECTIVE = Pattern.compile("^--\\s*([\\w.-]+)\\s*:(.*)$");
+
     public static List<Path> getMigrationFiles(String directory) throws MigrationFileReaderException {
-        Path migrationPath = Paths.get(directory);
+        return getMigrationFiles(MigrationLocation.resolve(directory));
+    }
 
+    // migrationPath может быть и путём внутри JAR (см. MigrationLocation)
+    public static List<Path> getMigrationFiles(Path migrationPath) throws MigrationFileReaderException {
         if (!Files.exists(migrationPath) || !Files.isDirectory(migrationPath)) {
             throw new MigrationFileReaderException(
-                    "The migrations directory does not exist or is not a directory: " + directory);
+                    "The migrations directory does not exist or is not a directory: " + migrationPath.toUri());
         }
 
         try (Stream<Path> stream = Files.walk(migrationPath)) {
+            // Версию разбираем один раз на файл, а не в компараторе на каждое сравнение
             return stream.filter(Files::isRegularFile)
-                    .filter(path -> path.getFileName().toString().matches("^V[\\d._]+__.+\\.sql$"))
-                    .sorted((path1, path2) -> {
-                        String fileName1 = path1.getFileName().toString();
-                        String fileName2 = path2.getFileName().toString();
-
-                        // Извлекаем номер версии из имени файла
-                        String version1 = extractVersion(fileName1);
-                        String version2 = extractVersion(fileName2);
-
-                        // Сравниваем версии
-                        return compareVersions(version1, version2);
-                    }) // if only one migration - comparator not will be called - skip everything
+                    .filter(MigrationFileReader::isMigrationFile)
+                    .map(path -> Map.entry(MigrationVersion.parse(path.getFileName().toString()), path))
+                    .sorted(Map.Entry.comparingByKey())
+                    .map(Map.Entry::getValue)
                     .collect(Collectors.toList());
         } catch (IOException e) {
             throw new MigrationFileReaderException("Wrong path or access violation while trying to get migration: " + e);
         }
     }
 
+    public static boolean isMigrationFile(Path path) {
+        return MIGRATION_FILE.matcher(path.getFileName().toString()).matches();
+    }
+
+    // Миграция с данными: CSV, который загружается в таблицу из заголовка (см. CsvDataLoader)
+    public static boolean isDataMigration(ResolvedMigration migration) {
+        return migration.getFileName().endsWith(".csv");
+    }
+
     public static String readFile(Path filePath) throws IOException {
         return Files.readString(filePath);
     }
 
-    private static String extractVersion(String fileName) {
-        String versionPart = fileName.split("__")[0]; // "V1_0"
-        return versionPart.substring(1); // удаляем "V" и получаем "1_0"
+    public static SqlStatementSplitter openStatements(ResolvedMigration migration, SqlDialect dialect) throws IOException {
+        return new SqlStatementSplitter(openReader(migration), dialect);
     }
 
-    private static int compareVersions(String version1, String version2) {
-        String[] parts1 = version1.split("[._-]");
-        String[] parts2 = version2.split("[._-]");
-        int length = Math.max(parts1.length, parts2.length);
-
-        for (int i = 0; i < length; i++) {
-            int v1 = i < parts1.length ? parseVersionPart(parts1[i]) : 0;
-            int v2 = i < parts2.length ? parseVersionPart(parts2[i]) : 0;
-            int compare = Integer.compare(v1, v2);
-            if (compare != 0) {
-                return compare;
+    // Директивы вида "-- lane: billing" из комментариев в начале файла, ключи в нижнем регистре
+    public static Map<String, String> readHeader(ResolvedMigration migration) throws IOException {
+        Map<String, String> directives = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(openReader(migration))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.strip();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                if (!trimmed.startsWith("--")) {
+                    break;
+                }
+                Matcher matcher = HEADER_DIRECTIVE.matcher(trimmed);
+                if (matcher.matches()) {
+                    directives.put(matcher.group(1).toLowerCase(Locale.ROOT), matcher.group(2).strip());
+                }
             }
         }
-        return 0;
+        return directives;
     }
 
-    private static int parseVersionPart(String part) {
+    // Содержимое файла после директив в начале: поток идёт прямо из канала, заголовок пропускаем сдвигом позиции
+    public static InputStream openData(ResolvedMigration migration) throws IOException {
+        byte[] content = migration.getContent();
+        if (content != null) {
+            int offset = (int) headerLength(new ByteArrayInputStream(content));
+            return new ByteArrayInputStream(content, offset, content.length - offset);
+        }
+        FileChannel channel = FileChannel.open(migration.getPath(), StandardOpenOption.READ);
         try {
-            return Integer.parseInt(part);
-        } catch (NumberFormatException e) {
-            return 0; // Если часть не является числом, возвращаем 0
+            // Поток поверх канала не закрываем - он закрыл бы и канал
+            long offset = headerLength(new BufferedInputStream(Channels.newInputStream(channel)));
+            channel.position(offset);
+            return Channels.newInputStream(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Число строк, которые пропускает openData: для номеров строк файла в сообщениях об ошибках
+    public static int headerLines(ResolvedMigration migration) throws IOException {
+        long length;
+        try (InputStream in = openRaw(migration)) {
+            length = headerLength(in);
+        }
+        int lines = 0;
+        try (InputStream in = openRaw(migration)) {
+            for (long i = 0; i < length; i++) {
+                if (in.read() == '\n') {
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static InputStream openRaw(ResolvedMigration migration) throws IOException {
+        return migration.getContent() != null
+                ? new ByteArrayInputStream(migration.getContent())
+                : new BufferedInputStream(Files.newInputStream(migration.getPath()));
+    }
+
+    // Длина в байтах начальных пустых строк и строк-комментариев "--"
+    private static long headerLength(InputStream in) throws IOException {
+        long length = 0;
+        long lineLength = 0;
+        // 0 - пока только пробелы, 1 - встретили "-", 2 - комментарий
+        int state = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            lineLength++;
+            if (b == '\n') {
+                if (state == 1) {
+                    return length;
+                }
+                length += lineLength;
+                lineLength = 0;
+                state = 0;
+            } else if (state == 0 && b == '-') {
+                state = 1;
+            } else if (state == 1 && b == '-') {
+                state = 2;
+            } else if (state < 2 && (state == 1 || !Character.isWhitespace(b))) {
+                return length;
+            }
+        }
+        return state == 1 ? length : length + lineLength;
+    }
+
+    private static Reader openReader(ResolvedMigration migration) throws IOException {
+        if (migration.getContent() != null) {
+            return new InputStreamReader(new ByteArrayInputStream(migration.getContent()), StandardCharsets.UTF_8);
         }
+        // Большие файлы не держим в памяти, читаем прямо из канала
+        FileChannel channel = FileChannel.open(migration.getPath(), StandardOpenOption.READ);
+        return Channels.newReader(channel, StandardCharsets.UTF_8);
+    }
+
+    // Сравнение по версии из имени: "V1_2__a.sql" < "V1_10__b.sql"; можно передать и просто "V1_10"
+    public static int compareByVersion(String fileName1, String fileName2) {
+        return MigrationVersion.parse(fileName1).compareTo(MigrationVersion.parse(fileName2));
     }
 }
@@ -0,0 +1,93 @@
+package com.shelzi.jdbcmigrate.io;
+
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Индекс миграций, который пишется при сборке артефакта рядом с самими файлами.
+// В рантайме вместо обхода директории и хеширования каждого файла читается он один.
+// Строка: <версия>\t<SHA-256>\t<путь относительно корня миграций>
+public class MigrationIndex {
+    public static final String FILE_NAME = "migrations.index";
+    private static final String HEADER = "# jdbcmigrate migration index v1";
+
+    private final List<String[]> entries;
+
+    private MigrationIndex(List<String[]> entries) {
+        this.entries = entries;
+    }
+
+    // null - индекса нет
+    public static MigrationIndex read(Path root) throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(root.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                throw new IOException("Unknown migration index format: " + header);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) {
+                    throw new IOException("Malformed migration index line: " + line);
+                }
+                entries.add(fields);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return new MigrationIndex(entries);
+    }
+
+    // Содержимое не читаем - оно понадобится только для тех миграций, которые действительно придётся применить
+    public List<ResolvedMigration> toMigrations(Path root) {
+        List<ResolvedMigration> migrations = new ArrayList<>(entries.size());
+        for (String[] entry : entries) {
+            migrations.add(new ResolvedMigration(root.resolve(entry[2]), null, entry[1]));
+        }
+        migrations.sort(Comparator.comparing(ResolvedMigration::getVersion));
+        return migrations;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Сборочный шаг: обходим и хешируем директорию как обычно и записываем результат
+    public static Path write(Path root) throws MigrationFileReaderException, IOException {
+        List<ResolvedMigration> migrations = new MigrationResolver(Runtime.getRuntime().availableProcessors(),
+                null, true, 0).resolve(root);
+        Path indexFile = root.resolve(FILE_NAME);
+        Path tempFile = Files.createTempFile(root, FILE_NAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (ResolvedMigration migration : migrations) {
+                    // Разделитель всегда '/', чтобы индекс, собранный на Windows, читался из JAR
+                    String relativePath = root.relativize(migration.getPath()).toString().replace('\\', '/');
+                    writer.write(migration.getVersion() + "\t" + migration.getChecksum() + "\t" + relativePath);
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return indexFile;
+    }
+}
@@ -0,0 +1,86 @@
+package com.shelzi.jdbcmigrate.io;
+
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// migration.directory может указывать не только на директорию:
+//   classpath:db/migration                - ресурс из classpath, в том числе внутри JAR приложения
+//   jar:file:/app/app.jar!/db/migration   - директория внутри конкретного архива
+// Архив открывается как zip FileSystem один раз на процесс и не закрывается: большие миграции
+// и файлы из индекса читаются лениво, уже после обхода.
+public class MigrationLocation {
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final String JAR_PREFIX = "jar:";
+    private static final String JAR_SEPARATOR = "!/";
+    private static final Map<URI, FileSystem> ARCHIVES = new ConcurrentHashMap<>();
+
+    private MigrationLocation() {
+    }
+
+    public static Path resolve(String location) throws MigrationFileReaderException {
+        if (location.startsWith(CLASSPATH_PREFIX)) {
+            return resolveClasspath(location.substring(CLASSPATH_PREFIX.length()));
+        }
+        if (location.startsWith(JAR_PREFIX)) {
+            return resolveArchive(location);
+        }
+        return Paths.get(location);
+    }
+
+    private static Path resolveClasspath(String resource) throws MigrationFileReaderException {
+        String name = resource.startsWith("/") ? resource.substring(1) : resource;
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader() != null
+                ? Thread.currentThread().getContextClassLoader()
+                : MigrationLocation.class.getClassLoader();
+        URL url = classLoader.getResource(name);
+        if (url == null) {
+            throw new MigrationFileReaderException("Migration location not found on the classpath: " + resource);
+        }
+        if (url.getProtocol().equals("file")) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new MigrationFileReaderException("Invalid classpath location: " + url, e);
+            }
+        }
+        return resolveArchive(url.toString());
+    }
+
+    // jar:<uri архива>!/<путь внутри>; вложенные архивы (jar внутри jar) не поддерживаются
+    private static Path resolveArchive(String location) throws MigrationFileReaderException {
+        int separator = location.indexOf(JAR_SEPARATOR);
+        if (separator < 0 || location.indexOf(JAR_SEPARATOR, separator + 1) >= 0) {
+            throw new MigrationFileReaderException("Unsupported archive location, expected jar:<file>!/<directory>: " + location);
+        }
+        URI archive = URI.create(location.substring(0, separator));
+        String entry = location.substring(separator + 1);
+        try {
+            FileSystem fileSystem = ARCHIVES.computeIfAbsent(archive, uri -> {
+                try {
+                    return FileSystems.newFileSystem(uri, Map.of());
+                } catch (FileSystemAlreadyExistsException e) {
+                    return FileSystems.getFileSystem(uri);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return fileSystem.getPath(entry);
+        } catch (UncheckedIOException e) {
+            throw new MigrationFileReaderException("Can't open migration archive " + archive + ": " + e.getCause(), e.getCause());
+        } catch (RuntimeException e) {
+            throw new MigrationFileReaderException("Can't open migration archive " + archive + ": " + e, e);
+        }
+    }
+}
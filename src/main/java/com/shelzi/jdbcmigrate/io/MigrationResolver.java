@@ -0,0 +1,170 @@
+package com.shelzi.jdbcmigrate.io;
+
+import com.shelzi.jdbcmigrate.entity.MigrationConfig;
+import com.shelzi.jdbcmigrate.entity.ResolvedMigration;
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+import com.shelzi.jdbcmigrate.metrics.MigrationMetrics;
+import com.shelzi.jdbcmigrate.metrics.Phase;
+import com.shelzi.jdbcmigrate.util.ChecksumCache;
+import com.shelzi.jdbcmigrate.util.ChecksumUtil;
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MigrationResolver {
+    private final int parallelism;
+    private final ChecksumCache checksumCache;
+    private final boolean forceRehash;
+    private final long inlineMaxBytes;
+    private final boolean useIndex;
+    private final MigrationMetrics metrics = MigrationMetrics.getInstance();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public MigrationResolver() {
+        this(Runtime.getRuntime().availableProcessors(), null, false, Long.MAX_VALUE);
+    }
+
+    public MigrationResolver(MigrationConfig config) {
+        this(config.getScanThreads(),
+                config.getChecksumCacheFile() != null && !config.getChecksumCacheFile().isBlank()
+                        ? ChecksumCache.load(Path.of(config.getChecksumCacheFile()))
+                        : null,
+                config.isForceRehash(),
+                config.getInlineMaxBytes(),
+                config.isMigrationIndexEnabled());
+    }
+
+    public MigrationResolver(int parallelism, ChecksumCache checksumCache, boolean forceRehash, long inlineMaxBytes) {
+        this(parallelism, checksumCache, forceRehash, inlineMaxBytes, false);
+    }
+
+    public MigrationResolver(int parallelism, ChecksumCache checksumCache, boolean forceRehash, long inlineMaxBytes,
+                             boolean useIndex) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.checksumCache = checksumCache;
+        this.forceRehash = forceRehash;
+        this.inlineMaxBytes = inlineMaxBytes;
+        this.useIndex = useIndex;
+    }
+
+    // Один обход директории, одно чтение каждого файла, хеширование в ограниченном пуле
+    public List<ResolvedMigration> resolve(String directory) throws MigrationFileReaderException {
+        return resolve(MigrationLocation.resolve(directory));
+    }
+
+    public List<ResolvedMigration> resolve(Path root) throws MigrationFileReaderException {
+        long scanStart = System.nanoTime();
+        List<ResolvedMigration> indexed = readIndex(root);
+        if (indexed != null) {
+            metrics.recordPhase(Phase.DIRECTORY_SCAN, scanStart);
+            return indexed;
+        }
+        List<Path> migrationFiles = MigrationFileReader.getMigrationFiles(root);
+        metrics.recordPhase(Phase.DIRECTORY_SCAN, scanStart);
+        return resolve(migrationFiles);
+    }
+
+    // Чтение и хеширование только указанных файлов - в режиме watch так обрабатываются изменившиеся
+    public List<ResolvedMigration> resolve(List<Path> migrationFiles) throws MigrationFileReaderException {
+        if (migrationFiles.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int threads = Math.min(parallelism, migrationFiles.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long hashStart = System.nanoTime();
+        try {
+            List<Future<ResolvedMigration>> futures = new ArrayList<>(migrationFiles.size());
+            for (Path path : migrationFiles) {
+                futures.add(pool.submit(() -> resolveFile(path)));
+            }
+
+            // Собираем в исходном порядке, сортировка по версиям уже сделана ридером или вызывающим
+            List<ResolvedMigration> resolved = new ArrayList<>(futures.size());
+            for (Future<ResolvedMigration> future : futures) {
+                resolved.add(future.get());
+            }
+            saveChecksumCache();
+            metrics.recordPhase(Phase.HASHING, hashStart);
+            return resolved;
+        } catch (ExecutionException e) {
+            throw new MigrationFileReaderException("Error while reading or hashing migration file: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationFileReaderException("Interrupted while resolving migration files.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Индексу доверяем только внутри архива: архив неизменяем, а в обычной директории
+    // файлы могли поменять после сборки, и устаревший индекс скрыл бы изменённую миграцию
+    private List<ResolvedMigration> readIndex(Path root) {
+        if (!useIndex || root.getFileSystem() == FileSystems.getDefault()) {
+            return null;
+        }
+        try {
+            MigrationIndex index = MigrationIndex.read(root);
+            if (index == null) {
+                return null;
+            }
+            logger.log(Level.DEBUG, "Using migration index " + root.resolve(MigrationIndex.FILE_NAME).toUri()
+                    + " with " + index.size() + " entries.");
+            return index.toMigrations(root);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARN, "Migration index in " + root.toUri() + " can't be read, scanning the files instead: " + e);
+            return null;
+        }
+    }
+
+    private ResolvedMigration resolveFile(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (checksumCache != null && !forceRehash) {
+            String cachedChecksum = checksumCache.lookup(path, attributes);
+            if (cachedChecksum != null) {
+                // Файл не менялся - содержимое прочитаем только если миграцию действительно придётся применять
+                return new ResolvedMigration(path, null, cachedChecksum);
+            }
+        }
+
+        ResolvedMigration migration;
+        if (attributes.size() > inlineMaxBytes) {
+            // Большой файл хешируем потоком и не держим в памяти, при применении он будет прочитан из канала
+            migration = new ResolvedMigration(path, null, ChecksumUtil.calculateChecksum(path));
+        } else {
+            byte[] content = Files.readAllBytes(path);
+            migration = new ResolvedMigration(path, content, ChecksumUtil.calculateChecksum(content));
+        }
+        if (checksumCache != null) {
+            checksumCache.put(path, attributes, migration.getChecksum());
+        }
+        return migration;
+    }
+
+    private void saveChecksumCache() {
+        if (checksumCache == null) {
+            return;
+        }
+        try {
+            checksumCache.save();
+        } catch (IOException e) {
+            // Кеш - только ускорение, его недоступность не должна останавливать миграцию
+            logger.warn("Failed to save checksum cache: " + e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.shelzi.jdbcmigrate.io;
+
+import com.shelzi.jdbcmigrate.exception.MigrationFileReaderException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Список шардов: "имя=jdbc-url" или просто "jdbc-url" (тогда имя - сам url).
+// В файле - по одному на строку, строки с # пропускаются; в db.shards - через запятую.
+public class ShardManifestReader {
+    // Запятая разделяет шарды, только если за ней начинается новый "имя=jdbc:" или "jdbc:" -
+    // запятые в url (несколько хостов pgjdbc, параметры запроса) остаются внутри url
+    private static final Pattern SHARD_SEPARATOR = Pattern.compile(",(?=\\s*(?:[^,=:\\s]+\\s*=\\s*)?jdbc:)");
+    private static final String URL_PREFIX = "jdbc:";
+
+    public static Map<String, String> read(Path manifest) throws MigrationFileReaderException {
+        try {
+            return parse(Files.readAllLines(manifest, StandardCharsets.UTF_8), manifest.toString());
+        } catch (IOException e) {
+            throw new MigrationFileReaderException("Can't read shard manifest " + manifest + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static Map<String, String> parse(String shards) throws MigrationFileReaderException {
+        return parse(Arrays.asList(SHARD_SEPARATOR.split(shards)), "db.shards");
+    }
+
+    private static Map<String, String> parse(List<String> lines, String source) throws MigrationFileReaderException {
+        Map<String, String> shards = new LinkedHashMap<>();
+        for (String line : lines) {
+            String entry = line.strip();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            // '=' внутри url (параметры запроса) не путаем с разделителем имени
+            int separator = entry.indexOf('=');
+            boolean named = separator > 0 && !entry.substring(0, separator).contains(":");
+            String name = named ? entry.substring(0, separator).strip() : entry;
+            String url = named ? entry.substring(separator + 1).strip() : entry;
+            if (url.isEmpty()) {
+                throw new MigrationFileReaderException("Shard " + name + " has no url in " + source);
+            }
+            if (!url.startsWith(URL_PREFIX)) {
+                throw new MigrationFileReaderException("Shard " + name + " in " + source + " is not a jdbc: url: " + url);
+            }
+            if (shards.put(name, url) != null) {
+                throw new MigrationFileReaderException("Duplicate shard " + name + " in " + source);
+            }
+        }
+        return shards;
+    }
+}
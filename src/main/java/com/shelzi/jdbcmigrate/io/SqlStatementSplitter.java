@@ -0,0 +1,278 @@
+package com.shelzi.jdbcmigrate.io;
+
+import com.shelzi.jdbcmigrate.database.SqlDialect;
+import com.shelzi.jdbcmigrate.entity.SqlStatement;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Потоковый разбор SQL на отдельные выражения: в памяти держим только буфер чтения и текущее выражение
+public class SqlStatementSplitter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_DOLLAR_TAG_LENGTH = 64;
+    private static final int MAX_DIRECTIVE_LENGTH = 256;
+    private static final String DEFAULT_DELIMITER = ";";
+    private static final Pattern DELIMITER_DIRECTIVE = Pattern.compile("(?i)^[ \\t]*DELIMITER[ \\t]+(\\S+)[ \\t]*\\r?$");
+
+    private final Reader reader;
+    private final SqlDialect dialect;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private final StringBuilder statement = new StringBuilder();
+    private String delimiter = DEFAULT_DELIMITER;
+    private int line = 1;
+    private boolean atLineStart = true;
+    private int statementIndex;
+
+    public SqlStatementSplitter(Reader reader, SqlDialect dialect) {
+        this.reader = reader;
+        this.dialect = dialect;
+    }
+
+    // Возвращает следующее выражение или null, если файл закончился
+    public SqlStatement nextStatement() throws IOException {
+        statement.setLength(0);
+        int startLine = -1;
+
+        while (true) {
+            int c = peek(0);
+            if (c < 0) {
+                break;
+            }
+
+            if (startLine < 0 && atLineStart && (c == 'D' || c == 'd') && tryDelimiterDirective()) {
+                continue;
+            }
+            if (matches(delimiter)) {
+                skip(delimiter.length());
+                if (startLine >= 0) {
+                    return emit(startLine);
+                }
+                // Между разделителями были только пробелы и комментарии
+                statement.setLength(0);
+                continue;
+            }
+
+            if ((c == '-' && peek(1) == '-') || (c == '#' && dialect.isMysqlSyntax())) {
+                readLineComment();
+            } else if (c == '/' && peek(1) == '*') {
+                readBlockComment();
+            } else {
+                if (startLine < 0 && !Character.isWhitespace(c)) {
+                    startLine = line;
+                }
+                if (c == '\'') {
+                    readQuoted('\'', dialect.isMysqlSyntax() || isEscapeStringPrefix());
+                } else if (c == '"') {
+                    readQuoted('"', dialect.isMysqlSyntax());
+                } else if (c == '`' && dialect.isMysqlSyntax()) {
+                    readQuoted('`', false);
+                } else if (c == '$' && dialect.supportsDollarQuoting() && !isIdentifierChar(lastChar())) {
+                    readDollarQuotedOrChar();
+                } else {
+                    consume();
+                }
+            }
+        }
+
+        return startLine >= 0 ? emit(startLine) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private SqlStatement emit(int startLine) {
+        statementIndex++;
+        SqlStatement result = new SqlStatement(statement.toString().strip(), statementIndex, startLine);
+        statement.setLength(0);
+        return result;
+    }
+
+    // MySQL-клиентская директива "DELIMITER //" меняет разделитель до следующей директивы
+    private boolean tryDelimiterDirective() throws IOException {
+        StringBuilder directive = new StringBuilder();
+        for (int i = 0; i < MAX_DIRECTIVE_LENGTH; i++) {
+            int c = peek(i);
+            if (c < 0 || c == '\n') {
+                break;
+            }
+            directive.append((char) c);
+        }
+        Matcher matcher = DELIMITER_DIRECTIVE.matcher(directive);
+        if (!matcher.matches()) {
+            return false;
+        }
+        delimiter = matcher.group(1);
+        skip(directive.length());
+        if (peek(0) == '\n') {
+            skip(1);
+        }
+        return true;
+    }
+
+    private void readLineComment() throws IOException {
+        int c;
+        while ((c = peek(0)) >= 0) {
+            consume();
+            if (c == '\n') {
+                return;
+            }
+        }
+    }
+
+    private void readBlockComment() throws IOException {
+        consume();
+        consume();
+        int depth = 1;
+        while (depth > 0 && peek(0) >= 0) {
+            if (dialect.supportsNestedComments() && peek(0) == '/' && peek(1) == '*') {
+                consume();
+                consume();
+                depth++;
+            } else if (peek(0) == '*' && peek(1) == '/') {
+                consume();
+                consume();
+                depth--;
+            } else {
+                consume();
+            }
+        }
+    }
+
+    private void readQuoted(char quote, boolean backslashEscapes) throws IOException {
+        consume();
+        int c;
+        while ((c = peek(0)) >= 0) {
+            if (backslashEscapes && c == '\\') {
+                consume();
+                if (peek(0) >= 0) {
+                    consume();
+                }
+                continue;
+            }
+            consume();
+            if (c == quote) {
+                // Удвоенная кавычка - экранирование, строка продолжается
+                if (peek(0) == quote) {
+                    consume();
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    private void readDollarQuotedOrChar() throws IOException {
+        int length = 1;
+        int c;
+        while ((c = peek(length)) >= 0 && c != '$') {
+            boolean valid = length == 1 ? Character.isLetter(c) || c == '_' : isIdentifierChar(c);
+            if (!valid || length > MAX_DOLLAR_TAG_LENGTH) {
+                // Не тег: $1, $-параметры и т.п.
+                consume();
+                return;
+            }
+            length++;
+        }
+        if (c < 0) {
+            consume();
+            return;
+        }
+
+        StringBuilder tag = new StringBuilder();
+        for (int i = 0; i <= length; i++) {
+            tag.append((char) peek(0));
+            consume();
+        }
+        String closingTag = tag.toString();
+        while (peek(0) >= 0) {
+            if (matches(closingTag)) {
+                for (int i = 0; i < closingTag.length(); i++) {
+                    consume();
+                }
+                return;
+            }
+            consume();
+        }
+    }
+
+    // E'...' в PostgreSQL допускает экранирование обратным слешем
+    private boolean isEscapeStringPrefix() {
+        int length = statement.length();
+        if (dialect != SqlDialect.POSTGRESQL || length == 0) {
+            return false;
+        }
+        char prefix = statement.charAt(length - 1);
+        return (prefix == 'E' || prefix == 'e') && (length == 1 || !isIdentifierChar(statement.charAt(length - 2)));
+    }
+
+    private int lastChar() {
+        return statement.length() == 0 ? -1 : statement.charAt(statement.length() - 1);
+    }
+
+    private static boolean isIdentifierChar(int c) {
+        return c >= 0 && (Character.isLetterOrDigit(c) || c == '_' || c == '$');
+    }
+
+    private boolean matches(String token) throws IOException {
+        for (int i = 0; i < token.length(); i++) {
+            if (peek(i) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void consume() {
+        char c = buffer[position++];
+        statement.append(c);
+        track(c);
+    }
+
+    private void skip(int count) {
+        for (int i = 0; i < count; i++) {
+            track(buffer[position++]);
+        }
+    }
+
+    private void track(char c) {
+        if (c == '\n') {
+            line++;
+            atLineStart = true;
+        } else if (!Character.isWhitespace(c)) {
+            atLineStart = false;
+        }
+    }
+
+    private int peek(int offset) throws IOException {
+        while (position + offset >= limit) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        return buffer[position + offset];
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.shelzi.jdbcmigrate.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Гистограмма длительностей с фиксированными границами, как у Prometheus.
+// Запись - линейный поиск по десятку границ и инкремент LongAdder, без блокировок и аллокаций.
+public class Histogram {
+    static final double[] BUCKET_SECONDS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 600};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * 1_000_000_000L);
+        }
+    }
+
+    // Последняя ячейка - всё, что больше последней границы (+Inf)
+    private final LongAdder[] buckets = new LongAdder[BUCKET_SECONDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    // Накопительные значения для ответа в формате Prometheus: i-я ячейка - число замеров <= границы
+    long[] cumulativeCounts() {
+        long[] cumulative = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sumNanos.reset();
+        count.reset();
+    }
+}
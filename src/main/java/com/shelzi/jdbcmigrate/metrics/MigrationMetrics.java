@@ -0,0 +1,225 @@
+package com.shelzi.jdbcmigrate.metrics;
+
+import com.shelzi.jdbcmigrate.util.LoggerFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Метрики всех запусков в этой JVM: время по этапам, счётчики выражений и строк, сбои продления блокировки.
+// Доступны через JMX (com.shelzi.jdbcmigrate:type=MigrationMetrics) и текстовый файл в формате Prometheus.
+public class MigrationMetrics implements MigrationMetricsMBean {
+    private static final MigrationMetrics INSTANCE = new MigrationMetrics();
+    private static final String OBJECT_NAME = "com.shelzi.jdbcmigrate:type=MigrationMetrics";
+    private static final int SLOWEST_LIMIT = 10;
+
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder rowsAffected = new LongAdder();
+    private final LongAdder migrationsApplied = new LongAdder();
+    private final LongAdder migrationsFailed = new LongAdder();
+    private final LongAdder lockRefreshFailures = new LongAdder();
+    private final LongAdder lockTimeoutRetries = new LongAdder();
+    private final Map<String, Long> migrationNanos = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private volatile boolean registered;
+
+    private MigrationMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+    }
+
+    public static MigrationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // Время от startNanos (System.nanoTime()) до текущего момента
+    public void recordPhase(Phase phase, long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    // nanos - время выполнения самой миграции; вызывается, когда исход известен: после commit или отката
+    public void recordMigration(String fileName, long nanos, boolean successful) {
+        phases.get(Phase.MIGRATION).record(nanos);
+        (successful ? migrationsApplied : migrationsFailed).increment();
+        migrationNanos.merge(fileName, nanos, Math::max);
+    }
+
+    public void addStatements(long count, long rows) {
+        statements.add(count);
+        if (rows > 0) {
+            rowsAffected.add(rows);
+        }
+    }
+
+    public void lockRefreshFailed() {
+        lockRefreshFailures.increment();
+    }
+
+    public void lockTimeoutRetried() {
+        lockTimeoutRetries.increment();
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            registered = true;
+        } catch (JMException e) {
+            logger.log(Level.WARN, "Failed to register migration metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Для textfile-коллектора node_exporter: пишем во временный файл и атомарно подменяем
+    public void writePrometheusFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tempFile, getPrometheusText(), StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTotalMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        phases.forEach((phase, histogram) ->
+                result.put(phase.getLabel(), TimeUnit.NANOSECONDS.toMillis(histogram.getSumNanos())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        phases.forEach((phase, histogram) -> result.put(phase.getLabel(), histogram.getCount()));
+        return result;
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getRowsAffected() {
+        return rowsAffected.sum();
+    }
+
+    @Override
+    public long getMigrationsApplied() {
+        return migrationsApplied.sum();
+    }
+
+    @Override
+    public long getMigrationsFailed() {
+        return migrationsFailed.sum();
+    }
+
+    @Override
+    public long getLockRefreshFailures() {
+        return lockRefreshFailures.sum();
+    }
+
+    @Override
+    public long getLockTimeoutRetries() {
+        return lockTimeoutRetries.sum();
+    }
+
+    @Override
+    public String[] getSlowestMigrations() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(migrationNanos.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries.stream()
+                .limit(SLOWEST_LIMIT)
+                .map(entry -> entry.getKey() + "=" + TimeUnit.NANOSECONDS.toMillis(entry.getValue()))
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP jdbcmigrate_phase_duration_seconds Time spent in each phase of a migration run.\n");
+        out.append("# TYPE jdbcmigrate_phase_duration_seconds histogram\n");
+        phases.forEach((phase, histogram) -> {
+            String label = "phase=\"" + phase.getLabel() + "\"";
+            long[] cumulative = histogram.cumulativeCounts();
+            for (int i = 0; i < Histogram.BUCKET_SECONDS.length; i++) {
+                out.append("jdbcmigrate_phase_duration_seconds_bucket{").append(label)
+                        .append(",le=\"").append(formatDouble(Histogram.BUCKET_SECONDS[i])).append("\"} ")
+                        .append(cumulative[i]).append('\n');
+            }
+            out.append("jdbcmigrate_phase_duration_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+                    .append(cumulative[cumulative.length - 1]).append('\n');
+            out.append("jdbcmigrate_phase_duration_seconds_sum{").append(label).append("} ")
+                    .append(formatDouble(histogram.getSumNanos() / 1e9)).append('\n');
+            out.append("jdbcmigrate_phase_duration_seconds_count{").append(label).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        });
+        counter(out, "jdbcmigrate_statements_total", "SQL statements executed.", statements.sum());
+        counter(out, "jdbcmigrate_rows_affected_total", "Rows affected by migration statements.", rowsAffected.sum());
+        counter(out, "jdbcmigrate_migrations_applied_total", "Migrations applied successfully.", migrationsApplied.sum());
+        counter(out, "jdbcmigrate_migrations_failed_total", "Migrations that failed.", migrationsFailed.sum());
+        counter(out, "jdbcmigrate_lock_refresh_failures_total", "Failed lock heartbeats.", lockRefreshFailures.sum());
+        counter(out, "jdbcmigrate_lock_timeout_retries_total", "Migrations retried after a lock timeout.",
+                lockTimeoutRetries.sum());
+
+        out.append("# HELP jdbcmigrate_migration_duration_seconds Longest execution time of each migration.\n");
+        out.append("# TYPE jdbcmigrate_migration_duration_seconds gauge\n");
+        migrationNanos.forEach((fileName, nanos) -> out.append("jdbcmigrate_migration_duration_seconds{migration=\"")
+                .append(fileName.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"} ")
+                .append(formatDouble(nanos / 1e9)).append('\n'));
+        return out.toString();
+    }
+
+    @Override
+    public void reset() {
+        phases.values().forEach(Histogram::reset);
+        statements.reset();
+        rowsAffected.reset();
+        migrationsApplied.reset();
+        migrationsFailed.reset();
+        lockRefreshFailures.reset();
+        lockTimeoutRetries.reset();
+        migrationNanos.clear();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String formatDouble(double value) {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,29 @@
+package com.shelzi.jdbcmigrate.metrics;
+
+import java.util.Map;
+
+public interface MigrationMetricsMBean {
+    // Суммарное время каждого этапа, мс
+    Map<String, Long> getPhaseTotalMillis();
+
+    Map<String, Long> getPhaseCounts();
+
+    long getStatementsExecuted();
+
+    long getRowsAffected();
+
+    long getMigrationsApplied();
+
+    long getMigrationsFailed();
+
+    long getLockRefreshFailures();
+
+    long getLockTimeoutRetries();
+
+    // Самые долгие миграции: "V12__big.sql=53012"
+    String[] getSlowestMigrations();
+
+    String getPrometheusText();
+
+    void reset();
+}
@@ -0,0 +1,21 @@
+package com.shelzi.jdbcmigrate.metrics;
+
+// Этапы запуска, время которых измеряется отдельно
+public enum Phase {
+    DIRECTORY_SCAN("directory_scan"),
+    HASHING("hashing"),
+    HISTORY_LOAD("history_load"),
+    LOCK_WAIT("lock_wait"),
+    MIGRATION("migration"),
+    HISTORY_WRITE("history_write");
+
+    private final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,151 @@
+package com.shelzi.jdbcmigrate.util;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Локальный кеш контрольных сумм: (путь, размер, mtime, inode) -> SHA-256
+public class ChecksumCache {
+    private static final String HEADER = "# jdbcmigrate checksum cache v1";
+    private static final String NO_FILE_KEY = "-";
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> updated = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private ChecksumCache(Path cacheFile, Map<String, Entry> entries) {
+        this.cacheFile = cacheFile;
+        this.entries = entries;
+    }
+
+    public static ChecksumCache load(Path cacheFile) {
+        ChecksumCache cache = new ChecksumCache(cacheFile, new ConcurrentHashMap<>());
+        try {
+            cache.entries.putAll(readEntries(cacheFile));
+        } catch (IOException | RuntimeException e) {
+            // Битый или недоступный кеш не должен ломать миграцию - просто пересчитаем всё
+            cache.logger.warn("Checksum cache " + cacheFile + " can't be read and will be rebuilt: " + e);
+        }
+        return cache;
+    }
+
+    public String lookup(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(key(file));
+        if (entry != null && entry.matches(attributes)) {
+            return entry.checksum();
+        }
+        return null;
+    }
+
+    public void put(Path file, BasicFileAttributes attributes, String checksum) {
+        String key = key(file);
+        Entry entry = new Entry(attributes.size(), modifiedNanos(attributes), fileKey(attributes), checksum);
+        entries.put(key, entry);
+        updated.put(key, entry);
+    }
+
+    public void save() throws IOException {
+        if (updated.isEmpty()) {
+            return;
+        }
+        Path directory = cacheFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path lockFile = directory.resolve(cacheFile.getFileName() + ".lock");
+
+        // Межпроцессная блокировка на время read-merge-write, чтобы не потерять записи соседа
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                Map<String, Entry> merged = new HashMap<>();
+                try {
+                    merged.putAll(readEntries(cacheFile));
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Checksum cache " + cacheFile + " is corrupted and will be overwritten: " + e);
+                }
+                merged.putAll(updated);
+                merged.keySet().removeIf(path -> !Files.exists(Path.of(path)));
+
+                // Пишем во временный файл рядом и атомарно подменяем - читатели видят либо старый, либо новый файл
+                Path tempFile = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+                try {
+                    try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                        writer.write(HEADER);
+                        writer.newLine();
+                        for (Map.Entry<String, Entry> e : merged.entrySet()) {
+                            Entry entry = e.getValue();
+                            writer.write(entry.checksum() + '\t' + entry.size() + '\t' + entry.modified() + '\t'
+                                    + entry.fileKey() + '\t' + e.getKey());
+                            writer.newLine();
+                        }
+                    }
+                    Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+        updated.clear();
+    }
+
+    private static Map<String, Entry> readEntries(Path cacheFile) throws IOException {
+        Map<String, Entry> result = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("Unknown checksum cache format: " + line);
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", 5);
+                if (parts.length != 5) {
+                    throw new IOException("Malformed checksum cache line: " + line);
+                }
+                result.put(parts[4], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[0]));
+            }
+        } catch (NoSuchFileException e) {
+            // Кеша ещё нет - первый запуск
+        }
+        return result;
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static long modifiedNanos(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey.toString().replace('\t', ' ') : NO_FILE_KEY;
+    }
+
+    private record Entry(long size, long modified, String fileKey, String checksum) {
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && modified == modifiedNanos(attributes)
+                    && fileKey.equals(ChecksumCache.fileKey(attributes));
+        }
+    }
+}
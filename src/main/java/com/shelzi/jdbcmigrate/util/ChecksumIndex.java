@@ -0,0 +1,86 @@
+package com.shelzi.jdbcmigrate.util;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+// Версия -> контрольная сумма в двух массивах с открытой адресацией (линейное пробирование).
+// Для сотен тысяч строк истории - без объекта на запись, как у HashMap и MigrationHistory.
+public class ChecksumIndex {
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] versions;
+    private String[] checksums;
+    private int size;
+
+    public ChecksumIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    public ChecksumIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        // Заполнение не больше половины - короткие цепочки пробирования
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        versions = new String[capacity];
+        checksums = new String[capacity];
+    }
+
+    public void put(String version, String checksum) {
+        Objects.requireNonNull(version, "version");
+        if ((size + 1) * 2 > versions.length) {
+            resize(versions.length << 1);
+        }
+        int slot = findSlot(versions, version);
+        if (versions[slot] == null) {
+            versions[slot] = version;
+            size++;
+        }
+        checksums[slot] = checksum;
+    }
+
+    public boolean contains(String version) {
+        return versions[findSlot(versions, version)] != null;
+    }
+
+    // null - версии нет (или она записана без контрольной суммы)
+    public String get(String version) {
+        return checksums[findSlot(versions, version)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < versions.length; i++) {
+            if (versions[i] != null) {
+                action.accept(versions[i], checksums[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        String[] oldVersions = versions;
+        String[] oldChecksums = checksums;
+        versions = new String[capacity];
+        checksums = new String[capacity];
+        for (int i = 0; i < oldVersions.length; i++) {
+            if (oldVersions[i] != null) {
+                int slot = findSlot(versions, oldVersions[i]);
+                versions[slot] = oldVersions[i];
+                checksums[slot] = oldChecksums[i];
+            }
+        }
+    }
+
+    private static int findSlot(String[] keys, String version) {
+        int mask = keys.length - 1;
+        int h = version.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(version)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -15,4 +15,9 @@ public class ChecksumUtil {
             return DigestUtils.sha256Hex(is);
         }
     }
+
+    public static String calculateChecksum(byte[] content) {
+        // Тот же SHA-256, но по уже прочитанному содержимому - без повторного чтения файла
+        return DigestUtils.sha256Hex(content);
+    }
 }
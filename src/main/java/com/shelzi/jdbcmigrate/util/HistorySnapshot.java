@@ -0,0 +1,103 @@
+package com.shelzi.jdbcmigrate.util;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// Локальная копия успешных строк migration_history до watermark (максимального id).
+// При следующем запуске из базы читаются только строки с id > watermark.
+public class HistorySnapshot {
+    private static final String HEADER = "# jdbcmigrate history snapshot v1";
+    private static final Logger logger = LoggerFactory.getLogger(HistorySnapshot.class);
+
+    private final long watermark;
+    private final ChecksumIndex checksums;
+
+    public HistorySnapshot(long watermark, ChecksumIndex checksums) {
+        this.watermark = watermark;
+        this.checksums = checksums;
+    }
+
+    public long getWatermark() {
+        return watermark;
+    }
+
+    public ChecksumIndex getChecksums() {
+        return checksums;
+    }
+
+    // Один файл на базу и схему: имя - хеш их идентификатора
+    public static Path fileFor(Path directory, String target) {
+        return directory.resolve("history-" + ChecksumUtil.calculateChecksum(target.getBytes(StandardCharsets.UTF_8)).substring(0, 16));
+    }
+
+    // null - снимка нет или он не читается; тогда история загружается целиком
+    public static HistorySnapshot load(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unknown history snapshot format");
+            }
+            String[] head = reader.readLine().split("\t");
+            long watermark = Long.parseLong(head[0]);
+            int count = Integer.parseInt(head[1]);
+            ChecksumIndex checksums = new ChecksumIndex(count);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Malformed history snapshot line: " + line);
+                }
+                String checksum = line.substring(tab + 1);
+                checksums.put(line.substring(0, tab), checksum.isEmpty() ? null : checksum);
+            }
+            if (checksums.size() != count) {
+                throw new IOException("History snapshot is truncated");
+            }
+            return new HistorySnapshot(watermark, checksums);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("History snapshot " + file + " can't be read and will be rebuilt: " + e);
+            return null;
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // Пишем во временный файл рядом и атомарно подменяем
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.write(watermark + "\t" + checksums.size());
+                writer.newLine();
+                IOException[] failure = new IOException[1];
+                checksums.forEach((version, checksum) -> {
+                    if (failure[0] == null) {
+                        try {
+                            writer.write(version + '\t' + (checksum != null ? checksum : ""));
+                            writer.newLine();
+                        } catch (IOException e) {
+                            failure[0] = e;
+                        }
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
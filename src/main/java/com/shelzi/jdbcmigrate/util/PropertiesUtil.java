@@ -29,6 +29,38 @@ public class PropertiesUtil {
         return properties;
     }
 
+    public static int getInt(Properties properties, String propertyName, int defaultValue) {
+        String value = properties.getProperty(propertyName);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + propertyName + " must be an integer: " + value);
+        }
+    }
+
+    public static long getLong(Properties properties, String propertyName, long defaultValue) {
+        String value = properties.getProperty(propertyName);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + propertyName + " must be an integer: " + value);
+        }
+    }
+
+    public static boolean getBoolean(Properties properties, String propertyName, boolean defaultValue) {
+        String value = properties.getProperty(propertyName);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
     private static void overrideWithEnv(Properties properties, String propertyName, String envName) {
         String envValue = System.getenv(envName);
         if (envValue != null && !envValue.isEmpty()) {
@@ -0,0 +1,19 @@
+package com.shelzi.jdbcmigrate.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ThreadPools {
+
+    // Для I/O-задач: виртуальные потоки, если рантайм их поддерживает (JDK 21+), иначе обычный фиксированный пул.
+    // Сборка остаётся на 17, поэтому метод ищем рефлексией. Ограничение параллелизма - на стороне вызывающего.
+    public static ExecutorService newIoExecutor(int threads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}